@@ -0,0 +1,106 @@
+package com.etteplan.servicemanual;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Write version counters, one per table.
+ * A counter is bumped after every committed write to its table, so anything computed from the table
+ * (a cached response, an ETag) is still current exactly as long as the version it was computed under is.
+ * The bump happens after the commit: a reader that saw the old version may have read the old rows,
+ * and the bump makes sure whatever it cached is never used again.
+ * Versions start from zero on every start, so they are combined with the startup time (the epoch)
+ * wherever they leave the process. */
+
+public enum DataVersion {
+    TASKS, DEVICES;
+
+    private static final long EPOCH = System.currentTimeMillis();
+
+    private final AtomicLong version = new AtomicLong();
+
+    public long get() {
+        return this.version.get();
+    }
+
+    // Bumps the version once the current transaction commits, or right away outside a transaction.
+    // A transaction that writes many rows bumps it only once.
+    public void bump() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            this.version.incrementAndGet();
+            return;
+        }
+        if (TransactionSynchronizationManager.hasResource(this)) {
+            // Already bumping when this transaction commits
+            return;
+        }
+        TransactionSynchronizationManager.bindResource(this, Boolean.TRUE);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                version.incrementAndGet();
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(DataVersion.this);
+            }
+        });
+    }
+
+    /* Strong ETags for conditional GETs.
+     * A table's ETag is its current version; a row's ETag is the table's version plus the row's id, so it changes
+     * with every write to the table, not only writes to that row. That's coarser than a per-row version,
+     * but it needs no query, so a matching If-None-Match can be answered with 304 before anything is read. */
+
+    public String etag() {
+        return etagOf(get());
+    }
+
+    public String etag(long id) {
+        return String.format("\"%s-%s-%s\"", Long.toString(EPOCH, 36), Long.toString(get(), 36), Long.toString(id, 36));
+    }
+
+    // For a caller that has already read the version, and needs the ETag to match exactly what it read
+    public static String etagOf(long version) {
+        return String.format("\"%s-%s\"", Long.toString(EPOCH, 36), Long.toString(version, 36));
+    }
+
+    // Whether an If-None-Match header (null if the request had none) matches the given ETag
+    public static boolean matches(String ifNoneMatch, String etag) {
+        return matches(ifNoneMatch, etag, true);
+    }
+
+    // As above, for a resource that may not exist: "*" only matches a resource that exists
+    public static boolean matches(String ifNoneMatch, String etag, boolean exists) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            // If-None-Match uses weak comparison, so a W/ prefix doesn't matter
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if ((exists && candidate.equals("*")) || candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        }
+        else {
+            action.run();
+        }
+    }
+}
@@ -7,17 +7,24 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.context.annotation.Bean;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.beans.factory.annotation.Value;
 
 import com.etteplan.servicemanual.factorydevice.FactoryDevice;
+import com.etteplan.servicemanual.factorydevice.FactoryDeviceIndex;
 import com.etteplan.servicemanual.factorydevice.FactoryDeviceRepository;
 import com.etteplan.servicemanual.maintenancetask.MaintenanceTask;
 import com.etteplan.servicemanual.maintenancetask.MaintenanceTaskRepository;
+import com.etteplan.servicemanual.maintenancetask.TaskChanges;
+import com.etteplan.servicemanual.maintenancetask.TaskCounters;
 
 import com.etteplan.servicemanual.DatabaseInitializer;
 
 @SpringBootApplication
+@EnableCaching
+@EnableScheduling
 public class ServiceManualApplication {
     
     @Autowired
@@ -53,6 +60,9 @@ public class ServiceManualApplication {
             taskRepository.saveAll(tasks);
             System.out.println("Database initialized");
         }
+        FactoryDeviceIndex.load(deviceRepository.findAllIds());
+        TaskCounters.load(taskRepository);
+        TaskChanges.load(taskRepository);
         return (params) -> {
             System.out.format("Running on http://localhost:%s/\n", port);
         };
@@ -0,0 +1,60 @@
+package com.etteplan.servicemanual;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/* Opt-in execution mode that serves every request on its own virtual thread: servicemanual.virtual-threads=true.
+ * Controllers and repositories are unchanged. They still block on JDBC, but a blocked virtual thread only parks,
+ * so the number of requests in flight is no longer capped by Tomcat's worker pool (server.tomcat.threads.max).
+ * The database connection pool (spring.datasource.hikari.maximum-pool-size) is what limits database work then.
+ * Async MVC work (the export, the event streams) runs on virtual threads too.
+ *
+ * Virtual threads need a Java 21 runtime. The build targets Java 17, the newest release Spring Boot 2.6 can scan
+ * classes of, so the executor is looked up when the mode is enabled, and startup fails if the runtime doesn't have it.
+ * See ThreadModeBenchmark for a comparison with the default worker pool. */
+
+@Configuration
+@ConditionalOnProperty(name = "servicemanual.virtual-threads", havingValue = "true")
+class VirtualThreadConfiguration implements WebMvcConfigurer {
+
+    // Closed with the context: close() waits for the requests still running. It only exists on Java 19 and later,
+    // but so does this executor. Being an Executor bean, it also replaces Spring Boot's applicationTaskExecutor.
+    @Bean(destroyMethod = "close")
+    ExecutorService virtualThreadExecutor() {
+        return virtualThreadPerTaskExecutor();
+    }
+
+    @Bean
+    TomcatProtocolHandlerCustomizer<?> virtualThreadRequests() {
+        ExecutorService executor = virtualThreadExecutor();
+        return protocolHandler -> protocolHandler.setExecutor(executor);
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(new TaskExecutorAdapter(virtualThreadExecutor()));
+    }
+
+    private static ExecutorService virtualThreadPerTaskExecutor() {
+        // Executors.newVirtualThreadPerTaskExecutor(), which only exists on Java 21 and later
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (NoSuchMethodException ex) {
+            throw new IllegalStateException("servicemanual.virtual-threads=true needs Java 21 or later, running on Java "
+                + Runtime.version().feature());
+        }
+        catch (IllegalAccessException | InvocationTargetException ex) {
+            throw new IllegalStateException("Could not create the virtual thread executor", ex);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.etteplan.servicemanual.cache;
+
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/* Statistics of the entity caches, for sizing them (spring.cache.caffeine.spec in application.properties).
+ * The counters start from zero when the application starts. */
+
+@RestController
+class CacheStatsController {
+
+    private final CacheManager cacheManager;
+
+    CacheStatsController(CacheManager cacheManager) {
+        this.cacheManager = cacheManager;
+    }
+
+    @GetMapping("/api/cache/stats")
+    Map<String, Map<String, Object>> stats() {
+        Map<String, Map<String, Object>> stats = new LinkedHashMap<>();
+        for (String name : cacheManager.getCacheNames()) {
+            Cache cache = cacheManager.getCache(name);
+            if (cache == null || !(cache.getNativeCache() instanceof com.github.benmanes.caffeine.cache.Cache)) {
+                continue;
+            }
+            com.github.benmanes.caffeine.cache.Cache<?, ?> caffeine = (com.github.benmanes.caffeine.cache.Cache<?, ?>) cache.getNativeCache();
+            CacheStats cacheStats = caffeine.stats();
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("size", caffeine.estimatedSize());
+            values.put("hits", cacheStats.hitCount());
+            values.put("misses", cacheStats.missCount());
+            values.put("hitRate", cacheStats.hitRate());
+            values.put("evictions", cacheStats.evictionCount());
+            stats.put(name, values);
+        }
+        return stats;
+    }
+}
@@ -4,6 +4,11 @@ import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+
+import com.etteplan.servicemanual.DataVersion;
 
 @Entity
 public class FactoryDevice {
@@ -30,6 +35,25 @@ public class FactoryDevice {
         this.type = type;
     }
 
+    // JPA allows one callback method per event, so these also bump the version for the ETags
+
+    @PostPersist
+    private void added() {
+        FactoryDeviceIndex.add(this.id);
+        DataVersion.DEVICES.bump();
+    }
+
+    @PostUpdate
+    private void updated() {
+        DataVersion.DEVICES.bump();
+    }
+
+    @PostRemove
+    private void removed() {
+        FactoryDeviceIndex.remove(this.id);
+        DataVersion.DEVICES.bump();
+    }
+
     public Long getId() {
         return this.id;
     }
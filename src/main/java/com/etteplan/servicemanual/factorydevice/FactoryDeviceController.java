@@ -4,8 +4,14 @@ import org.springframework.web.bind.annotation.RestController;
 
 import java.util.List;
 
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+
+import com.etteplan.servicemanual.DataVersion;
 
 @RestController
 public class FactoryDeviceController {
@@ -16,14 +22,27 @@ public class FactoryDeviceController {
         this.repository = repository;
     }
 
+    // Both answer a matching If-None-Match with 304 from DataVersion.DEVICES alone, before any query
+
     @GetMapping("/factorydevices")
-    List<FactoryDevice> all() {
-        return repository.findAll();
+    ResponseEntity<List<FactoryDevice>> all(@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        String etag = DataVersion.DEVICES.etag();
+        if (DataVersion.matches(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
+        return ResponseEntity.ok().eTag(etag).body(repository.findAll());
     }
 
     @GetMapping("/factorydevices/{id}")
-    FactoryDevice one(@PathVariable Long id) {
-        return repository.findById(id)
+    ResponseEntity<FactoryDevice> one(@PathVariable Long id,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        // "*" matches any device, so only one that exists, like getTaskById. FactoryDeviceIndex answers that from memory.
+        String etag = DataVersion.DEVICES.etag(id);
+        if (DataVersion.matches(ifNoneMatch, etag, FactoryDeviceIndex.contains(id))) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
+        FactoryDevice device = repository.findById(id)
             .orElseThrow(() -> new FactoryDeviceNotFoundException(id));
+        return ResponseEntity.ok().eTag(etag).body(device);
     }
-}
\ No newline at end of file
+}
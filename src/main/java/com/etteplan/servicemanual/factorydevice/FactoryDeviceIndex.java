@@ -0,0 +1,119 @@
+package com.etteplan.servicemanual.factorydevice;
+
+import com.etteplan.servicemanual.DataVersion;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/* In-memory set of the ids of all factory devices, so that writes can check a task's deviceId
+ * without a database round trip.
+ * Loaded once at startup (see ServiceManualApplication.initDatabase) and kept in sync by FactoryDevice's
+ * entity callbacks, after the transaction that created or removed the device has committed.
+ * The set is an open addressing hash table of primitive longs. Devices almost never change,
+ * so every change builds a new table and publishes it with a single volatile write:
+ * contains() never locks and never sees a half-updated table. */
+
+public final class FactoryDeviceIndex {
+
+    // Marks an empty slot. Generated ids are positive.
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final int MIN_CAPACITY = 16;
+
+    private static volatile long[] table = emptyTable(MIN_CAPACITY);
+    private static volatile int size = 0;
+
+    // Private constructor because we want a static class
+    private FactoryDeviceIndex() {}
+
+    public static boolean contains(long id) {
+        long[] current = table;
+        int mask = current.length - 1;
+        for (int slot = slot(id, mask); ; slot = (slot + 1) & mask) {
+            if (current[slot] == id) {
+                return true;
+            }
+            if (current[slot] == EMPTY) {
+                return false;
+            }
+        }
+    }
+
+    public static int size() {
+        return size;
+    }
+
+    // Replaces the whole index with the given ids
+    public static synchronized void load(Collection<Long> ids) {
+        long[] loaded = emptyTable(capacityFor(ids.size()));
+        int count = 0;
+        for (Long id : ids) {
+            if (insert(loaded, id)) {
+                count++;
+            }
+        }
+        table = loaded;
+        size = count;
+    }
+
+    // Both apply once the current transaction commits: a device that is rolled back never becomes a member
+
+    static void add(long id) {
+        DataVersion.afterCommit(() -> update(id, true));
+    }
+
+    static void remove(long id) {
+        DataVersion.afterCommit(() -> update(id, false));
+    }
+
+    private static synchronized void update(long id, boolean add) {
+        if (contains(id) == add) {
+            return;
+        }
+        int count = add ? size + 1 : size - 1;
+        long[] updated = emptyTable(capacityFor(count));
+        for (long member : table) {
+            if (member != EMPTY && member != id) {
+                insert(updated, member);
+            }
+        }
+        if (add) {
+            insert(updated, id);
+        }
+        table = updated;
+        size = count;
+    }
+
+    private static boolean insert(long[] target, long id) {
+        int mask = target.length - 1;
+        int slot = slot(id, mask);
+        while (target[slot] != EMPTY) {
+            if (target[slot] == id) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        target[slot] = id;
+        return true;
+    }
+
+    private static int slot(long id, int mask) {
+        // Spread sequential ids over the table
+        long hash = id * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private static int capacityFor(int count) {
+        // Power of two, at most half full
+        int capacity = MIN_CAPACITY;
+        while (capacity < count * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static long[] emptyTable(int capacity) {
+        long[] empty = new long[capacity];
+        Arrays.fill(empty, EMPTY);
+        return empty;
+    }
+}
@@ -1,7 +1,37 @@
 package com.etteplan.servicemanual.factorydevice;
 
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.CachePut;
+import org.springframework.cache.annotation.Cacheable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+
+import java.util.List;
+import java.util.Optional;
+
+// Single devices are cached by id, like tasks (see MaintenanceTaskRepository).
 
 public interface FactoryDeviceRepository extends JpaRepository<FactoryDevice, Long> {
+
+    String CACHE = "devices";
+
+    @Override
+    @Cacheable(cacheNames = CACHE, unless = "#result == null")
+    Optional<FactoryDevice> findById(Long id);
+
+    @Override
+    @CachePut(cacheNames = CACHE, key = "#result.id")
+    <S extends FactoryDevice> S save(S device);
+
+    @Override
+    @CacheEvict(cacheNames = CACHE, key = "#p0.id")
+    void delete(FactoryDevice device);
+
+    @Override
+    @CacheEvict(cacheNames = CACHE)
+    void deleteById(Long id);
     
-}
\ No newline at end of file
+    // The ids of all devices, for loading FactoryDeviceIndex
+    @Query("select d.id from FactoryDevice d")
+    List<Long> findAllIds();
+}
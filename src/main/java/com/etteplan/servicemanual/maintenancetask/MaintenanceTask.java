@@ -1,16 +1,48 @@
 package com.etteplan.servicemanual.maintenancetask;
 
+import javax.persistence.Convert;
 import javax.persistence.Entity;
 import javax.persistence.Enumerated;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.EnumType;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.PostLoad;
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+import javax.persistence.PrePersist;
+import javax.persistence.PreRemove;
+import javax.persistence.PreUpdate;
+import javax.persistence.Table;
+import javax.persistence.Transient;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.NotEmpty;
 import java.time.LocalDateTime;
 
+import com.etteplan.servicemanual.DataVersion;
+
 @Entity
+@Table(indexes = {
+    /* One index per filter combination that TaskFetcher supports, each ending in the listing's sort order,
+     * so filtered listings are read from the index already sorted:
+     * deviceId, deviceId + severity -> idx_task_device
+     * deviceId + status, deviceId + status + severity -> idx_task_device_status
+     * status, status + severity -> idx_task_status
+     * severity, no filters -> idx_task_listing
+     * registeredFrom/registeredTo without a more selective filter -> idx_task_registered */
+    @Index(name = "idx_task_device", columnList = "deviceId, severity, registered, id"),
+    @Index(name = "idx_task_device_status", columnList = "deviceId, status, severity, registered, id"),
+    @Index(name = "idx_task_status", columnList = "status, severity, registered, id"),
+    // Time windows are read with a range scan on this one
+    @Index(name = "idx_task_registered", columnList = "registered"),
+    // Sort order of the task listing. Keyset pagination seeks on this index (see TaskFetcher).
+    // It contains every column, so the unfiltered listing doesn't have to visit the table at all.
+    @Index(name = "idx_task_listing", columnList = "severity, registered, id, deviceId, status, description"),
+    // Changes since a sync token are read with a range scan on this one (see TaskChanges)
+    @Index(name = "idx_task_change", columnList = "changeSeq")
+})
 public class MaintenanceTask {
     
     /* Fields */
@@ -21,9 +53,9 @@ public class MaintenanceTask {
     @NotNull
     private Long deviceId; // The device that underwent this maintenance task
 
-    @Enumerated(EnumType.STRING)
+    @Convert(converter = TaskSeverityConverter.class)
     @NotNull
-    private TaskSeverity severity; // Unimportant, important, or critical
+    private TaskSeverity severity; // Unimportant, important, or critical. Stored as its rank, critical first.
     
     @Enumerated(EnumType.ORDINAL)
     @NotNull
@@ -42,6 +74,18 @@ public class MaintenanceTask {
     @NotNull
     private LocalDateTime registered;
 
+    // Change sequence number of the last write to this task (see TaskChanges). Not part of the API's task properties.
+    // Null for tasks that haven't been written since the column was added.
+    private Long changeSeq;
+
+    // The values as they are in the database, see the entity callbacks below
+    @Transient
+    private Long storedDeviceId;
+    @Transient
+    private TaskStatus storedStatus;
+    @Transient
+    private TaskSeverity storedSeverity;
+
     protected MaintenanceTask() {
         // Default constructor
         this.registered = LocalDateTime.now();
@@ -72,6 +116,76 @@ public class MaintenanceTask {
         this.registered = registered;
     }
 
+    /* Entity callbacks. They bump the task version, keep TaskCounters up to date, publish TaskEvents,
+     * and record the change for TaskChanges.
+     * Bulk deletes don't call these, they do all of that themselves (see MaintenanceTaskRepositoryImpl).
+     * An update only knows the new values, so the values the counters were last given are kept in stored*.
+     * JPA allows one callback method per event. */
+
+    @PrePersist
+    @PreUpdate
+    private void changing() {
+        this.changeSeq = TaskChanges.current();
+    }
+
+    @PreRemove
+    private void removing() {
+        // Runs when the task is removed, before the transaction commits, so the tombstone is written in it
+        TaskChanges.deleted(this.id);
+    }
+
+    @PostLoad
+    private void loaded() {
+        store();
+    }
+
+    @PostPersist
+    private void persisted() {
+        TaskCounters.added(this.deviceId, this.status, this.severity);
+        TaskEvents.created(this);
+        store();
+        DataVersion.TASKS.bump();
+    }
+
+    @PostUpdate
+    private void updated() {
+        TaskCounters.moved(this.storedDeviceId, this.storedStatus, this.storedSeverity, this.deviceId, this.status, this.severity);
+        TaskEvents.updated(this);
+        store();
+        DataVersion.TASKS.bump();
+    }
+
+    @PostRemove
+    private void removed() {
+        TaskCounters.removed(this.storedDeviceId, this.storedStatus, this.storedSeverity);
+        TaskEvents.deleted(this.id);
+        DataVersion.TASKS.bump();
+    }
+
+    private void store() {
+        this.storedDeviceId = this.deviceId;
+        this.storedStatus = this.status;
+        this.storedSeverity = this.severity;
+    }
+
+    static MaintenanceTask stored(Long id, Long deviceId, TaskSeverity severity, TaskStatus status, String description,
+            LocalDateTime registered, Long changeSeq) {
+        // A task as it is in the database, for a row that wasn't loaded as an entity
+        MaintenanceTask task = new MaintenanceTask(deviceId, severity, status, description, registered);
+        task.id = id;
+        task.changeSeq = changeSeq;
+        task.store();
+        return task;
+    }
+
+    MaintenanceTask copy() {
+        // A copy with the same id. Saving it updates this task in the database.
+        MaintenanceTask copy = new MaintenanceTask(this.deviceId, this.severity, this.status, this.description, this.registered);
+        copy.id = this.id;
+        copy.changeSeq = this.changeSeq;
+        return copy;
+    }
+
     public Long getId() {
         return this.id;
     }
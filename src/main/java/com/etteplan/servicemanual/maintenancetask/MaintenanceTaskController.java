@@ -8,48 +8,85 @@ import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.ResponseStatus;
 
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 
 import org.springframework.hateoas.EntityModel;
 import org.springframework.hateoas.CollectionModel;
-import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.*;
+import org.springframework.hateoas.IanaLinkRelations;
+import org.springframework.hateoas.Link;
+import org.springframework.hateoas.MediaTypes;
 
-import com.etteplan.servicemanual.factorydevice.FactoryDeviceRepository;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import reactor.core.publisher.Flux;
+
+import com.etteplan.servicemanual.DataVersion;
+import com.etteplan.servicemanual.factorydevice.FactoryDeviceIndex;
 import com.etteplan.servicemanual.factorydevice.FactoryDeviceNotFoundException;
 
 import javax.validation.Valid;
 
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.function.Function;
 import java.util.stream.Collectors;
-import java.util.ArrayList;
 
 @RestController
 class MaintenanceTaskController {
     
     private final MaintenanceTaskRepository taskRepository;
-    private final FactoryDeviceRepository deviceRepository;
     private final MaintenanceTaskModelAssembler assembler;
+    private final TaskExporter exporter;
+    private final TaskImporter importer;
+    private final TaskResponseCache responseCache;
+    private final ReactiveTaskReader reactiveReader;
     
     // Our constructor
-    public MaintenanceTaskController(MaintenanceTaskRepository taskRepository, FactoryDeviceRepository deviceRepository, MaintenanceTaskModelAssembler assembler) {
+    public MaintenanceTaskController(MaintenanceTaskRepository taskRepository, MaintenanceTaskModelAssembler assembler, TaskExporter exporter, TaskImporter importer,
+            TaskResponseCache responseCache, ReactiveTaskReader reactiveReader) {
         this.taskRepository = taskRepository;
-        this.deviceRepository = deviceRepository;
         this.assembler = assembler;
+        this.exporter = exporter;
+        this.importer = importer;
+        this.responseCache = responseCache;
+        this.reactiveReader = reactiveReader;
         TaskFetcher.setTaskRepository(taskRepository); // TaskFetcher.java
         TaskEditor.setTaskRepository(taskRepository); // TaskEditor.java
-        TaskEditor.setDeviceRepository(deviceRepository);
     }
 
-    CollectionModel<EntityModel<MaintenanceTask>> addHyperlinks(List<MaintenanceTask> tasks) {
-        // Helper function to add links to /api/tasks, and /api/tasks/{taskId} to each task obj
-        // prior to sending it as a response to the client
-        List<EntityModel<MaintenanceTask>> tasksModel = tasks.stream().map(assembler::toModel).collect(Collectors.toList());
-        return CollectionModel.of(tasksModel, linkTo(methodOn(MaintenanceTaskController.class).all(assembler.params)).withSelfRel());
+    <T> CollectionModel<EntityModel<T>> addHyperlinks(TaskPage<T> page, Function<T, EntityModel<T>> toModel) {
+        // Helper function to add links to /api/tasks, and /api/tasks/{taskId} to each task obj (whole or sparse)
+        // prior to sending it as a response to the client, plus next/prev links when the listing was paginated.
+        // The links carry the page's parsed query parameters plus the new cursor,
+        // so the filters and the limit carry over to the next page.
+        List<EntityModel<T>> models = page.getTasks().stream().map(toModel).collect(Collectors.toList());
+        CollectionModel<EntityModel<T>> model = CollectionModel.of(models, assembler.links.tasks().withSelfRel());
+        if (page.getNextCursor() != null) {
+            model.add(Link.of(pageUri(page, page.getNextCursor()), IanaLinkRelations.NEXT));
+        }
+        if (page.getPrevCursor() != null) {
+            model.add(Link.of(pageUri(page, page.getPrevCursor()), IanaLinkRelations.PREV));
+        }
+        return model;
+    }
+
+    private static String pageUri(TaskPage<?> page, String cursor) {
+        UriComponentsBuilder uri = ServletUriComponentsBuilder.fromCurrentRequestUri().replaceQuery(null);
+        page.getParameters().forEach(uri::queryParam);
+        return uri.queryParam(TaskFetcher.Q_CURSOR, cursor).toUriString();
     }
 
     // MAPPING: /api/tasks
@@ -61,36 +98,169 @@ class MaintenanceTaskController {
     // Fetch tasks
     
     @GetMapping("/api/tasks")
-    ResponseEntity<Object> all(@RequestParam Map<String, String> queryParameters) {
-        List<MaintenanceTask> tasks = new ArrayList<>();
+    ResponseEntity<Object> all(@RequestParam Map<String, String> queryParameters,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        // Pages are cached as encoded bytes until the next task write (see TaskResponseCache).
+        // The version is read before the query, so a write that commits meanwhile invalidates what we cache,
+        // and the ETag is never newer than the tasks in the body.
+        // A time window relative to now ("registeredFrom=PT24H") moves without any write, so it gets neither.
+        boolean relative = TaskFetcher.hasRelativeTime(queryParameters);
+        long version = DataVersion.TASKS.get();
+        String etag = relative ? null : DataVersion.etagOf(version);
+        if (etag != null && DataVersion.matches(ifNoneMatch, etag)) {
+            // The client already has this version of the listing
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
+        // Only pages are bounded in size. An unpaged listing can be the whole table: it is streamed, not buffered.
+        boolean cached = !relative && TaskFetcher.isPaged(queryParameters);
+        String key = cached ? responseCache.key(queryParameters) : null;
+        byte[] body = cached ? responseCache.get(key, version) : null;
+        if (body == null) {
+            CollectionModel<?> model;
+            try {
+                if (queryParameters.containsKey(TaskFetcher.Q_FIELDS)) {
+                    // Sparse listing, only the requested properties are read and written
+                    model = addHyperlinks(TaskFetcher.fetchFieldPage(queryParameters), assembler::toModel);
+                }
+                else {
+                    model = addHyperlinks(TaskFetcher.fetchTaskPage(queryParameters), assembler::toModel);
+                }
+            }
+            catch (QueryParameterException ex) {
+                // Got a bad parameter. We do not proceed.
+                return ResponseEntity.badRequest().body(ex.getMessage());
+            }
+            // Query was ok, return whatever tasks were found.
+            if (!cached) {
+                return listing(etag).body(model);
+            }
+            body = responseCache.render(model);
+            responseCache.put(key, version, body);
+        }
+        return listing(etag).body(body);
+    }
+
+    private static ResponseEntity.BodyBuilder listing(String etag) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().contentType(MediaTypes.HAL_JSON);
+        return etag == null ? response : response.eTag(etag);
+    }
+    
+    // Export tasks as newline-delimited JSON.
+    // Accepts the same filters as fetching tasks. The response is streamed as the tasks are read,
+    // so it's suitable for exporting the whole table.
+
+    @GetMapping("/api/tasks/export")
+    ResponseEntity<StreamingResponseBody> export(@RequestParam Map<String, String> queryParameters) {
+        TaskQuery query;
+        try {
+            query = TaskFetcher.parseFilters(queryParameters);
+        }
+        catch (QueryParameterException ex) {
+            // Got a bad parameter. Nothing is streamed, we just send the error message.
+            byte[] message = ex.getMessage().getBytes(StandardCharsets.UTF_8);
+            return ResponseEntity.badRequest().contentType(MediaType.TEXT_PLAIN).body(outputStream -> outputStream.write(message));
+        }
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(exporter.export(query));
+    }
+
+    // Reactive alternative to the export: the same filters, read with R2DBC and streamed as newline-delimited JSON
+    // as the client consumes it (see ReactiveTaskReader.java). Bad parameters are answered by QueryParameterAdvice.
+
+    @GetMapping(value = "/api/tasks/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    Flux<MaintenanceTask> stream(@RequestParam Map<String, String> queryParameters) throws QueryParameterException {
+        return reactiveReader.streamTasks(TaskFetcher.parseFilters(queryParameters));
+    }
+
+    // Count tasks, grouped by any of deviceId, status and severity.
+    // Accepts the same filters as fetching tasks. The counting is done by the database.
+
+    @GetMapping("/api/tasks/stats")
+    ResponseEntity<Object> stats(@RequestParam Map<String, String> queryParameters) {
+        List<Map<String, Object>> groups;
         try {
-            tasks = TaskFetcher.fetchTasks(queryParameters);
+            groups = TaskFetcher.countTasks(queryParameters);
         }
         catch (QueryParameterException ex) {
-            // Got a bad parameter. We do not proceed.
+            // Got a bad parameter. Nothing was counted.
             return ResponseEntity.badRequest().body(ex.getMessage());
         }
-        // Query was ok, return whatever tasks were found.
-        return ResponseEntity.ok().body(addHyperlinks(tasks));
+        long total = groups.stream().mapToLong(group -> (Long) group.get(MaintenanceTaskRepository.COUNT)).sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("total", total);
+        stats.put("groups", groups);
+        return ResponseEntity.ok().body(stats);
     }
-    
+
+    // Task counts per device, optionally for a single status and/or severity.
+    // Answered from counters kept in memory (see TaskCounters.java), so it can be polled often.
+
+    @GetMapping("/api/tasks/counters")
+    ResponseEntity<Object> counters(@RequestParam Map<String, String> queryParameters) {
+        try {
+            return ResponseEntity.ok().body(TaskFetcher.countPerDevice(queryParameters));
+        }
+        catch (QueryParameterException ex) {
+            return ResponseEntity.badRequest().body(ex.getMessage());
+        }
+    }
+
+    // Tasks changed and deleted since a token from a previous response, for clients that keep their own copy.
+    // Reads only the changes, by change sequence number (see TaskChanges.java).
+
+    @GetMapping("/api/tasks/changes")
+    ResponseEntity<Object> changes(@RequestParam Map<String, String> queryParameters) {
+        try {
+            return ResponseEntity.ok().body(TaskFetcher.fetchChanges(queryParameters));
+        }
+        catch (QueryParameterException ex) {
+            return ResponseEntity.badRequest().body(ex.getMessage());
+        }
+    }
+
+    // Stream of task changes as server-sent events (see TaskEvents.java)
+
+    @GetMapping(value = "/api/tasks/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    SseEmitter events() {
+        return TaskEvents.subscribe();
+    }
+
+    // Update every task that matches the filters
+
+    @PatchMapping("/api/tasks")
+    ResponseEntity<String> patchTasks(@RequestParam Map<String, String> queryParameters, @RequestBody Map<String, String> requestBody) {
+        // Same filters as DELETE, same request body as PATCH on a single task.
+        // The body is validated once, and the database updates the matching tasks with set-based statements.
+        int updated;
+        try {
+            Map<String, Object> changes = TaskEditor.parseChanges(requestBody);
+            updated = TaskFetcher.patchTasks(queryParameters, changes);
+        }
+        catch (RequestBodyException ex) {
+            // Error in the request body. Nothing was updated.
+            return ResponseEntity.badRequest().body(ex.getMessage());
+        }
+        catch (QueryParameterException ex) {
+            // Got a bad parameter. Nothing was updated.
+            return ResponseEntity.badRequest().body(ex.getMessage());
+        }
+        return ResponseEntity.ok().body(String.format("Updated %d tasks", updated));
+    }
+
     // Delete tasks
 
     @DeleteMapping("/api/tasks")
     ResponseEntity<String> deleteTasks(@RequestParam Map<String, String> queryParameters) {
         // Delete tasks
-        List<MaintenanceTask> tasks = new ArrayList<>();
+        int deleted;
         try {
-            // Try to fetch the tasks
-            tasks = TaskFetcher.fetchTasks(queryParameters);
+            // Try to delete the tasks. The database does the matching, no task is fetched.
+            deleted = TaskFetcher.deleteTasks(queryParameters);
         }
         catch (QueryParameterException ex) {
-            // Got a bad parameter.
+            // Got a bad parameter. Nothing was deleted.
             return ResponseEntity.badRequest().body(ex.getMessage());
         }
-        // Query was ok, delete whatever tasks were found
-        taskRepository.deleteAll(tasks);
-        return ResponseEntity.ok().body(String.format("Deleted %d tasks", tasks.size()));
+        return ResponseEntity.ok().body(String.format("Deleted %d tasks", deleted));
     }
     
     // Create a new task
@@ -99,7 +269,7 @@ class MaintenanceTaskController {
     @ResponseStatus(HttpStatus.CREATED)
     EntityModel<MaintenanceTask> createTask(@RequestBody @Valid MaintenanceTask task) {
         // Returns 400 bad request if the supplied task object is not valid in some way.
-        if (!deviceRepository.existsById(task.getDeviceId())) {
+        if (!FactoryDeviceIndex.contains(task.getDeviceId())) {
             // Error, no such device.
             throw new FactoryDeviceNotFoundException(task.getDeviceId());
         }
@@ -112,17 +282,40 @@ class MaintenanceTaskController {
         return assembler.toModel(task);
     }
 
+    // Create many tasks at once
+
+    @PostMapping(value = "/api/tasks/batch", consumes = { MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE })
+    ResponseEntity<Object> createTasks(InputStream body) {
+        // Returns 400 bad request only if the body as a whole can't be read.
+        // Problems with individual tasks are reported per task in the response, and don't stop the other tasks from being created.
+        try {
+            return ResponseEntity.ok().body(importer.importTasks(body));
+        }
+        catch (RequestBodyException ex) {
+            return ResponseEntity.badRequest().body(ex.getMessage());
+        }
+    }
+
     // MAPPING: /api/tasks/{taskId}
 
     // Show a unique task by its id
     
     @GetMapping("/api/tasks/{taskId}")
-    EntityModel<MaintenanceTask> getTaskById(@PathVariable Long taskId) {
+    ResponseEntity<EntityModel<MaintenanceTask>> getTaskById(@PathVariable Long taskId,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        // Like the listing, answered with 304 from the version alone, before the task is looked up.
+        // A client only has this version's ETag if the task existed at this version, and a delete changes the version.
+        // "*" matches any task, so it is answered from the version only if the task exists, else 404.
+        String etag = DataVersion.TASKS.etag(taskId);
+        if (DataVersion.matches(ifNoneMatch, etag, false)
+                || (DataVersion.matches(ifNoneMatch, etag) && taskRepository.existsById(taskId))) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
         MaintenanceTask task = taskRepository.findById(taskId)
             .orElseThrow(() -> new MaintenanceTaskNotFoundException(taskId));
         
         // Task was found, show it
-        return assembler.toModel(task);
+        return ResponseEntity.ok().eTag(etag).body(assembler.toModel(task));
     }
 
     // Delete a single task based on its id
@@ -146,12 +339,11 @@ class MaintenanceTaskController {
 
         /* We allow the modification of as many or as few of the fields as desired. */
         
-        MaintenanceTask task = taskRepository.findById(taskId)
-            .orElseThrow(() -> new MaintenanceTaskNotFoundException(taskId));
-        
-        // Task exists. Try to edit it according to the given request body
+        // The task isn't loaded as an entity: its old columns are read with a locking select, then the validated
+        // properties are written with an UPDATE of only those columns. MaintenanceTaskNotFoundException if no task has the id.
+        MaintenanceTask task;
         try {
-            task = TaskEditor.editTask(task, requestBody);
+            task = TaskEditor.patchTask(taskId, requestBody);
         }
         catch (RequestBodyException ex) {
             // Error in the request body
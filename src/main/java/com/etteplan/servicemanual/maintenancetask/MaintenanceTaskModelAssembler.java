@@ -1,28 +1,35 @@
 package com.etteplan.servicemanual.maintenancetask;
 
-import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.*;
-
 import org.springframework.hateoas.EntityModel;
 import org.springframework.hateoas.server.RepresentationModelAssembler;
 import org.springframework.stereotype.Component;
 
-import java.util.HashMap;
-import java.util.Map;
-
 @Component
 class MaintenanceTaskModelAssembler implements RepresentationModelAssembler<MaintenanceTask, EntityModel<MaintenanceTask>> {
     
-    // We need this map because the all() method accepts it as a parameter
-    // Set to protected so that the controller can use this field as well, without
-    // having to define its own separate maps for its addHyperlinks function
-    protected final Map<String, String> params = new HashMap<String, String>();
+    // Builds the links (see TaskLinks.java)
+    // Set to protected so that the controller can use it for its addHyperlinks function as well
+    protected final TaskLinks links;
+
+    MaintenanceTaskModelAssembler(TaskLinks links) {
+        this.links = links;
+    }
 
   @Override
   public EntityModel<MaintenanceTask> toModel(MaintenanceTask task) {
     return EntityModel.of(task, //
         // self { ... }
-        linkTo(methodOn(MaintenanceTaskController.class).getTaskById(task.getId())).withSelfRel(),
+        links.task(task.getId()),
         // tasks { ... }
-        linkTo(methodOn(MaintenanceTaskController.class).all(params)).withRel("tasks"));
+        links.tasks());
+    }
+
+  // A row of a sparse listing. It has a self link only if its id was requested.
+  public EntityModel<TaskFields> toModel(TaskFields row) {
+    Long id = row.getId();
+    if (id == null) {
+        return EntityModel.of(row, links.tasks());
     }
+    return EntityModel.of(row, links.task(id), links.tasks());
+  }
 }
@@ -1,56 +1,55 @@
 package com.etteplan.servicemanual.maintenancetask;
 
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.CachePut;
+import org.springframework.cache.annotation.Cacheable;
 import org.springframework.data.jpa.repository.JpaRepository;
-import java.util.List;
-
-// Query creation: https://docs.spring.io/spring-data/jpa/docs/1.4.2.RELEASE/reference/html/jpa.repositories.html#jpa.query-methods.query-creation
-// All single item fetching method name start with "findBy".
-// Multiple row fetching methods start with "findAll".
-
-public interface MaintenanceTaskRepository extends JpaRepository<MaintenanceTask, Long> { 
-    
-    // ... where deviceId = <deviceId> order by severity asc, registered
-    List<MaintenanceTask> findAllByDeviceIdOrderBySeverityAscRegistered(Long deviceId);
-
-    // ... order by severity asc, registered
-    List<MaintenanceTask> findAllByOrderBySeverityAscRegistered();
-    
-    // ... where deviceId = <deviceId> (NO sorting)
-    List<MaintenanceTask> findAllByDeviceId(Long deviceId);
-
-    // where status = <status> and severity = <severity> order by severity ASC registered
-    List<MaintenanceTask> findAllByStatusAndSeverityOrderBySeverityAscRegistered(TaskStatus status, TaskSeverity severity);
-
-    // where status = <status> order by severity ASC registered
-    List<MaintenanceTask> findAllByStatusOrderBySeverityAscRegistered(TaskStatus status);
-
-    // where severity = <severity> order by severity ASC registered
-    List<MaintenanceTask> findAllBySeverityOrderBySeverityAscRegistered(TaskSeverity severity);
-
-    // where deviceId = <deviceId> AND status = <status> AND severity = <severity> order by severity ASC, registered
-    List<MaintenanceTask> findAllByDeviceIdAndStatusAndSeverityOrderBySeverityAscRegistered(Long deviceId, TaskStatus status, TaskSeverity severity);
-    
-    // where deviceId = <deviceId> AND status = <status> order by [...]
-    List<MaintenanceTask> findAllByDeviceIdAndStatusOrderBySeverityAscRegistered(Long deviceId, TaskStatus status);
-
-    // where deviceId = <deviceId> AND severity = <severity> order by [...]
-    List<MaintenanceTask> findAllByDeviceIdAndSeverityOrderBySeverityAscRegistered(Long deviceId, TaskSeverity severity);
-
-    // where deviceId = <deviceId> AND status = <status> (NO sorting)
-    List<MaintenanceTask> findAllByDeviceIdAndStatus(Long deviceId, TaskStatus status);
-    
-    // where deviceId = <deviceId> AND severity = <severity> (NO sorting)
-    List<MaintenanceTask> findAllByDeviceIdAndSeverity(Long deviceId, TaskSeverity severity);
-
-    // where deviceId = <deviceId> AND status = <status> AND severity = <severity> (NO sorting)
-    List<MaintenanceTask> findAllByDeviceIdAndStatusAndSeverity(Long deviceId, TaskStatus status, TaskSeverity severity);
-
-    // where status = <status> (NO sorting)
-    List<MaintenanceTask> findAllByStatus(TaskStatus status);
-
-    // where severity = <severity> (NO sorting)
-    List<MaintenanceTask> findAllBySeverity(TaskSeverity severity);
-
-    // where status = <status> AND severity = <severity> (NO sorting)
-    List<MaintenanceTask> findAllByStatusAndSeverity(TaskStatus status, TaskSeverity severity);
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+
+import java.util.Map;
+import java.util.Optional;
+
+// Task listings are queried with a TaskQuery, which is a Specification:
+// taskRepository.findAll(query, sort) builds the where clause from whichever filters the query has.
+// Queries that need more than a where clause are in MaintenanceTaskRepositoryCustom.
+// Single tasks are cached by id (see spring.cache.* in application.properties). Every write that goes through
+// this repository updates or evicts the cache. Cached tasks are shared between requests, so never modify
+// a task returned by findById: edit a copy() and save that (see TaskEditor).
+
+public interface MaintenanceTaskRepository extends JpaRepository<MaintenanceTask, Long>, JpaSpecificationExecutor<MaintenanceTask>,
+        MaintenanceTaskRepositoryCustom { 
+
+    String CACHE = "tasks";
+
+    // Missing tasks aren't cached, so a task created later is found right away
+    @Override
+    @Cacheable(cacheNames = CACHE, unless = "#result == null")
+    Optional<MaintenanceTask> findById(Long id);
+
+    @Override
+    @CachePut(cacheNames = CACHE, key = "#result.id")
+    <S extends MaintenanceTask> S save(S task);
+
+    @Override
+    @CacheEvict(cacheNames = CACHE, key = "#p0.id")
+    void delete(MaintenanceTask task);
+
+    @Override
+    @CacheEvict(cacheNames = CACHE)
+    void deleteById(Long id);
+
+    // The patched task replaces the cached one. Nothing is cached if there was no such task.
+    @Override
+    @CachePut(cacheNames = CACHE, key = "#p0", unless = "#result == null")
+    Optional<MaintenanceTask> patchTask(Long taskId, Map<String, Object> changes);
+
+    // Bulk deletes don't tell us which tasks they removed
+    @Override
+    @CacheEvict(cacheNames = CACHE, allEntries = true)
+    int deleteTasks(TaskQuery query);
+
+    // Same for bulk updates
+    @Override
+    @CacheEvict(cacheNames = CACHE, allEntries = true)
+    int patchTasks(TaskQuery query, Map<String, Object> changes);
 }
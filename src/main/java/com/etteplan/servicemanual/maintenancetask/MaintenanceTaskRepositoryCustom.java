@@ -0,0 +1,70 @@
+package com.etteplan.servicemanual.maintenancetask;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+// Repository methods which can't be expressed as derived queries.
+// Implemented in MaintenanceTaskRepositoryImpl.
+
+public interface MaintenanceTaskRepositoryCustom {
+
+    // Name of the count in the rows of countTasks
+    String COUNT = "count";
+
+    // Keyset pagination: ... where <filters> and (severity, registered, id) > <cursor> order by severity, registered, id
+    // The comparison and order are reversed for backward cursors. Returns at most maxResults rows.
+    List<MaintenanceTask> findPage(TaskQuery query, int maxResults);
+
+    // select <query.selectedAttributes()> from ... where <filters> [and past the cursor] order by severity, registered, id
+    // Sparse listing: only the selected columns are read, as plain values, and no entities are loaded.
+    // Returns at most maxResults rows, or all of them if maxResults is negative.
+    List<TaskFields> findFields(TaskQuery query, int maxResults);
+
+    // select <groupBy>, count(*) from ... where <filters> group by <groupBy> order by <groupBy>
+    // One row per group, with the group's values and its "count". Without groupBy, a single row with the total count.
+    List<Map<String, Object>> countTasks(TaskQuery query, List<String> groupBy);
+
+    // ... where <filters> order by severity, registered, id
+    // Rows are read through a cursor as the stream is consumed. Must be called inside a transaction,
+    // and the stream must be closed afterwards.
+    Stream<MaintenanceTask> streamTasks(TaskQuery query);
+
+    // update ... set changeSeq = <this transaction's> where <filters>, then from the marked rows: the counts for TaskCounters,
+    // insert into task_tombstone ... select, and delete from ... where changeSeq = <this transaction's>.
+    // All of it runs in the database, only the counts per device, status and severity are read. Returns the number of deleted tasks.
+    int deleteTasks(TaskQuery query);
+
+    // select ... where id = <taskId> for update, then update ... set <changed columns> where id = <taskId>
+    // The old values are read as plain columns, the task isn't loaded as an entity. The changes are attribute values as returned by TaskEditor.parseChanges.
+    // Returns the updated task, or nothing if there is no task with the id.
+    Optional<MaintenanceTask> patchTask(Long taskId, Map<String, Object> changes);
+
+    // update ... set changeSeq = <this transaction's> where <filters>, the counts of the marked rows for TaskCounters,
+    // then update ... set <changed columns> where changeSeq = <this transaction's>. In the database, like deleteTasks.
+    // Returns the number of updated tasks.
+    int patchTasks(TaskQuery query, Map<String, Object> changes);
+
+    // Changes for GET /api/tasks/changes (see TaskChanges), by change sequence number.
+    // Both read a range of the changeSeq index: ... where changeSeq > since and changeSeq <= upTo order by changeSeq
+
+    List<MaintenanceTask> findChangedTasks(long since, long upTo);
+
+    List<Long> findDeletedTaskIds(long since, long upTo);
+
+    // Must be called inside a transaction
+    void saveTombstones(List<Long> taskIds, long changeSeq);
+
+    // Tombstone pruning (see TombstonePruner). The highest change sequence number of the tombstones written before the time,
+    // the lowest of all tombstones, 0 if there are none, and a bulk delete of the tombstones below a change sequence number.
+    long maxExpiredTombstoneSeq(LocalDateTime before);
+
+    long minTombstoneSeq();
+
+    int deleteTombstonesBelow(long changeSeq);
+
+    // The highest change sequence number of any task or tombstone, 0 if there are none
+    long maxChangeSeq();
+}
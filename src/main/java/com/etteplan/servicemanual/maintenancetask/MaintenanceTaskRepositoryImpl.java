@@ -0,0 +1,430 @@
+package com.etteplan.servicemanual.maintenancetask;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import javax.persistence.Tuple;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaDelete;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.CriteriaUpdate;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Order;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Selection;
+
+import org.springframework.transaction.annotation.Transactional;
+
+import org.hibernate.jpa.QueryHints;
+import org.hibernate.query.NativeQuery;
+import org.hibernate.type.ByteType;
+import org.hibernate.type.IntegerType;
+import org.hibernate.type.LocalDateTimeType;
+import org.hibernate.type.LongType;
+import org.hibernate.type.StringType;
+
+import com.etteplan.servicemanual.DataVersion;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+// Spring Data picks this class up as the implementation of MaintenanceTaskRepositoryCustom
+// because of its name (<repository interface name>Impl).
+// All queries are built with the criteria API from the filters of a TaskQuery.
+// With hibernate.criteria.literal_handling_mode=bind (see application.properties) every value becomes
+// a bind parameter, so the generated JPQL only depends on which filters were supplied, and Hibernate
+// compiles it once per filter shape and reuses the plan from its query plan cache after that.
+
+class MaintenanceTaskRepositoryImpl implements MaintenanceTaskRepositoryCustom {
+
+    // Rows per JDBC round trip when streaming
+    private static final int STREAM_FETCH_SIZE = 500;
+
+    // The tombstones of the rows a bulk delete has marked, written by the database
+    private static final String TOMBSTONE_INSERT_SQL = "insert into task_tombstone (task_id, change_seq, deleted) "
+        + "select id, ?, ? from maintenance_task where change_seq = ?";
+    // What TaskCounters counts by
+    private static final List<String> COUNTED_ATTRIBUTES = List.of(TaskQuery.ATTR_DEVICEID, TaskQuery.ATTR_STATUS, TaskQuery.ATTR_SEVERITY);
+
+    // Columns of the attributes that a patch can change
+    private static final Map<String, String> PATCH_COLUMNS = Map.of(TaskQuery.ATTR_DEVICEID, "device_id", TaskQuery.ATTR_STATUS, "status",
+        TaskQuery.ATTR_SEVERITY, "severity", TaskQuery.ATTR_DESCRIPTION, "description", TaskQuery.ATTR_REGISTERED, "registered");
+    // The old values, locked until the transaction ends, so no other write gets between them and the update.
+    // H2 1.4.200's data change delta tables (select ... from old table (update ...)) would do both in one statement,
+    // but the first such statement on a table returns the old row without applying the update.
+    private static final String PATCH_SELECT_SQL = "select device_id, status, severity, description, registered "
+        + "from maintenance_task where id = ? for update";
+    private static final String PATCH_UPDATE_SQL = "update maintenance_task set %s, change_seq = ? where id = ?";
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public List<MaintenanceTask> findPage(TaskQuery query, int maxResults) {
+        TaskCursor cursor = query.getCursor();
+        boolean backward = cursor != null && cursor.isBackward();
+
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<MaintenanceTask> criteria = cb.createQuery(MaintenanceTask.class);
+        Root<MaintenanceTask> task = criteria.from(MaintenanceTask.class);
+        List<Predicate> predicates = pagePredicates(query, task, cb);
+        criteria.select(task).orderBy(listingOrder(cb, task, backward));
+        if (!predicates.isEmpty()) {
+            criteria.where(predicates.toArray(new Predicate[0]));
+        }
+        return entityManager.createQuery(criteria).setMaxResults(maxResults).getResultList();
+    }
+
+    @Override
+    public List<TaskFields> findFields(TaskQuery query, int maxResults) {
+        TaskCursor cursor = query.getCursor();
+        boolean backward = cursor != null && cursor.isBackward();
+        List<String> attributes = query.selectedAttributes();
+
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Tuple> criteria = cb.createTupleQuery();
+        Root<MaintenanceTask> task = criteria.from(MaintenanceTask.class);
+        List<Selection<?>> selections = new ArrayList<>();
+        for (String attribute : attributes) {
+            selections.add(task.get(attribute).alias(attribute));
+        }
+        List<Predicate> predicates = pagePredicates(query, task, cb);
+        criteria.multiselect(selections).orderBy(listingOrder(cb, task, backward));
+        if (!predicates.isEmpty()) {
+            criteria.where(predicates.toArray(new Predicate[0]));
+        }
+        TypedQuery<Tuple> typedQuery = entityManager.createQuery(criteria);
+        if (maxResults >= 0) {
+            typedQuery.setMaxResults(maxResults);
+        }
+        List<TaskFields> rows = new ArrayList<>();
+        for (Tuple tuple : typedQuery.getResultList()) {
+            TaskFields row = new TaskFields();
+            for (String attribute : attributes) {
+                row.put(attribute, tuple.get(attribute));
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    @Override
+    public List<Map<String, Object>> countTasks(TaskQuery query, List<String> groupBy) {
+        // Only the grouped columns and the count leave the database. The grouped columns and the
+        // filter columns lead one of the task indexes, so H2 can count from the index without visiting the table.
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Tuple> criteria = cb.createTupleQuery();
+        Root<MaintenanceTask> task = criteria.from(MaintenanceTask.class);
+        List<Selection<?>> selections = new ArrayList<>();
+        List<Expression<?>> groups = new ArrayList<>();
+        List<Order> order = new ArrayList<>();
+        for (String attribute : groupBy) {
+            Path<?> path = task.get(attribute);
+            selections.add(path.alias(attribute));
+            groups.add(path);
+            order.add(cb.asc(path));
+        }
+        selections.add(cb.count(task).alias(COUNT));
+        List<Predicate> predicates = query.filterPredicates(task, cb);
+        criteria.multiselect(selections).groupBy(groups).orderBy(order);
+        if (!predicates.isEmpty()) {
+            criteria.where(predicates.toArray(new Predicate[0]));
+        }
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (Tuple tuple : entityManager.createQuery(criteria).getResultList()) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            for (String attribute : groupBy) {
+                row.put(attribute, tuple.get(attribute));
+            }
+            row.put(COUNT, tuple.get(COUNT));
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    @Override
+    public Stream<MaintenanceTask> streamTasks(TaskQuery query) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<MaintenanceTask> criteria = cb.createQuery(MaintenanceTask.class);
+        Root<MaintenanceTask> task = criteria.from(MaintenanceTask.class);
+        List<Predicate> predicates = query.filterPredicates(task, cb);
+        criteria.select(task).orderBy(listingOrder(cb, task, false));
+        if (!predicates.isEmpty()) {
+            criteria.where(predicates.toArray(new Predicate[0]));
+        }
+        // Read the result in chunks of STREAM_FETCH_SIZE rows instead of all at once.
+        // Read-only entities don't keep a snapshot for dirty checking.
+        return entityManager.createQuery(criteria)
+            .setHint(QueryHints.HINT_FETCH_SIZE, STREAM_FETCH_SIZE)
+            .setHint(QueryHints.HINT_READONLY, true)
+            .getResultStream();
+    }
+
+    @Override
+    @Transactional
+    public int deleteTasks(TaskQuery query) {
+        // No entity callbacks for bulk statements, so this does their work, and all of it in the database:
+        // nothing but the counts per device, status and severity leaves it, however many tasks match.
+        // The matching rows are first marked with this transaction's change sequence number, which locks them until it ends.
+        // The counts for TaskCounters, the tombstones and the delete then all read exactly the marked rows,
+        // even if other transactions write matching tasks at the same time.
+        long changeSeq = TaskChanges.current();
+        int deleted = markTasks(query, changeSeq);
+        if (deleted > 0) {
+            List<Map<String, Object>> groups = countMarked(changeSeq);
+            entityManager.createNativeQuery(TOMBSTONE_INSERT_SQL)
+                .setParameter(1, changeSeq)
+                .setParameter(2, LocalDateTime.now())
+                .setParameter(3, changeSeq)
+                .executeUpdate();
+            CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+            CriteriaDelete<MaintenanceTask> delete = cb.createCriteriaDelete(MaintenanceTask.class);
+            Root<MaintenanceTask> task = delete.from(MaintenanceTask.class);
+            delete.where(cb.equal(task.get(TaskQuery.ATTR_CHANGESEQ), changeSeq));
+            entityManager.createQuery(delete).executeUpdate();
+            TaskCounters.removedAll(groups);
+            // Too many to list one by one
+            TaskEvents.reset();
+            DataVersion.TASKS.bump();
+        }
+        return deleted;
+    }
+
+    @Override
+    @Transactional
+    public Optional<MaintenanceTask> patchTask(Long taskId, Map<String, Object> changes) {
+        // Only the changed columns are written. The task is never loaded as an entity: its old values are read
+        // as plain columns, for the counters and the response, so this does the work of the entity callbacks, like deleteTasks.
+        Query select = entityManager.createNativeQuery(PATCH_SELECT_SQL);
+        select.unwrap(NativeQuery.class)
+            .addScalar("device_id", LongType.INSTANCE)
+            .addScalar("status", IntegerType.INSTANCE)
+            .addScalar("severity", ByteType.INSTANCE)
+            .addScalar("description", StringType.INSTANCE)
+            .addScalar("registered", LocalDateTimeType.INSTANCE);
+        select.setParameter(1, taskId);
+        List<?> rows = select.getResultList();
+        if (rows.isEmpty()) {
+            // No task with this id, nothing to update
+            return Optional.empty();
+        }
+
+        long changeSeq = TaskChanges.current();
+        List<String> assignments = new ArrayList<>();
+        List<Object> values = new ArrayList<>();
+        for (Map.Entry<String, Object> change : changes.entrySet()) {
+            assignments.add(PATCH_COLUMNS.get(change.getKey()) + " = ?");
+            values.add(columnValue(change.getValue()));
+        }
+        values.add(changeSeq);
+        values.add(taskId);
+        Query update = entityManager.createNativeQuery(String.format(PATCH_UPDATE_SQL, String.join(", ", assignments)));
+        for (int i = 0; i < values.size(); i++) {
+            update.setParameter(i + 1, values.get(i));
+        }
+        update.executeUpdate();
+
+        Object[] row = (Object[]) rows.get(0);
+        MaintenanceTask before = MaintenanceTask.stored(taskId, (Long) row[0], new TaskSeverityConverter().convertToEntityAttribute((Byte) row[2]),
+            TaskStatus.values()[(Integer) row[1]], (String) row[3], (LocalDateTime) row[4], null);
+        MaintenanceTask task = MaintenanceTask.stored(taskId, before.getDeviceId(), before.getSeverity(), before.getStatus(),
+            before.getDescription(), before.getRegistered(), changeSeq);
+        TaskEditor.applyChanges(task, changes);
+        TaskCounters.moved(before.getDeviceId(), before.getStatus(), before.getSeverity(), task.getDeviceId(), task.getStatus(), task.getSeverity());
+        TaskEvents.updated(task);
+        DataVersion.TASKS.bump();
+        return Optional.of(task);
+    }
+
+    @Override
+    @Transactional
+    public int patchTasks(TaskQuery query, Map<String, Object> changes) {
+        // No entity callbacks for bulk statements, so this does their work in the database, like deleteTasks: the matching
+        // rows are marked and locked, counted per device, status and severity, and then updated by the mark.
+        // The counts after the update are the counts before it with the changes applied, no second query needed.
+        long changeSeq = TaskChanges.current();
+        int updated = markTasks(query, changeSeq);
+        if (updated > 0) {
+            List<Map<String, Object>> before = countMarked(changeSeq);
+            CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+            CriteriaUpdate<MaintenanceTask> update = cb.createCriteriaUpdate(MaintenanceTask.class);
+            Root<MaintenanceTask> task = update.from(MaintenanceTask.class);
+            for (Map.Entry<String, Object> change : changes.entrySet()) {
+                update.set(task.get(change.getKey()), change.getValue());
+            }
+            update.where(cb.equal(task.get(TaskQuery.ATTR_CHANGESEQ), changeSeq));
+            entityManager.createQuery(update).executeUpdate();
+            List<Map<String, Object>> after = new ArrayList<>();
+            for (Map<String, Object> group : before) {
+                Map<String, Object> moved = new LinkedHashMap<>(group);
+                for (String attribute : COUNTED_ATTRIBUTES) {
+                    if (changes.containsKey(attribute)) {
+                        moved.put(attribute, changes.get(attribute));
+                    }
+                }
+                after.add(moved);
+            }
+            TaskCounters.removedAll(before);
+            TaskCounters.addedAll(after);
+            // Too many to list one by one
+            TaskEvents.reset();
+            DataVersion.TASKS.bump();
+        }
+        return updated;
+    }
+
+    private int markTasks(TaskQuery query, long changeSeq) {
+        // update ... set changeSeq = <changeSeq> where <filters>. The rows stay locked until the transaction ends.
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaUpdate<MaintenanceTask> mark = cb.createCriteriaUpdate(MaintenanceTask.class);
+        Root<MaintenanceTask> task = mark.from(MaintenanceTask.class);
+        mark.set(task.get(TaskQuery.ATTR_CHANGESEQ), changeSeq);
+        List<Predicate> predicates = query.filterPredicates(task, cb);
+        if (!predicates.isEmpty()) {
+            mark.where(predicates.toArray(new Predicate[0]));
+        }
+        return entityManager.createQuery(mark).executeUpdate();
+    }
+
+    private List<Map<String, Object>> countMarked(long changeSeq) {
+        // The marked rows counted per device, status and severity, as countTasks returns them. A range of the changeSeq index.
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Tuple> criteria = cb.createTupleQuery();
+        Root<MaintenanceTask> task = criteria.from(MaintenanceTask.class);
+        List<Selection<?>> selections = new ArrayList<>();
+        List<Expression<?>> groups = new ArrayList<>();
+        for (String attribute : COUNTED_ATTRIBUTES) {
+            selections.add(task.get(attribute).alias(attribute));
+            groups.add(task.get(attribute));
+        }
+        selections.add(cb.count(task).alias(COUNT));
+        criteria.multiselect(selections).where(cb.equal(task.get(TaskQuery.ATTR_CHANGESEQ), changeSeq)).groupBy(groups);
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (Tuple tuple : entityManager.createQuery(criteria).getResultList()) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            for (String attribute : COUNTED_ATTRIBUTES) {
+                row.put(attribute, tuple.get(attribute));
+            }
+            row.put(COUNT, tuple.get(COUNT));
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private static Object columnValue(Object value) {
+        // As the entity mapping stores it: status by ordinal, severity by rank
+        if (value instanceof TaskStatus) {
+            return ((TaskStatus) value).ordinal();
+        }
+        if (value instanceof TaskSeverity) {
+            return new TaskSeverityConverter().convertToDatabaseColumn((TaskSeverity) value);
+        }
+        return value;
+    }
+
+    @Override
+    public List<MaintenanceTask> findChangedTasks(long since, long upTo) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<MaintenanceTask> criteria = cb.createQuery(MaintenanceTask.class);
+        Root<MaintenanceTask> task = criteria.from(MaintenanceTask.class);
+        Path<Long> changeSeq = task.get(TaskQuery.ATTR_CHANGESEQ);
+        criteria.select(task)
+            .where(cb.greaterThan(changeSeq, since), cb.lessThanOrEqualTo(changeSeq, upTo))
+            .orderBy(cb.asc(changeSeq), cb.asc(task.get(TaskQuery.ATTR_ID)));
+        return entityManager.createQuery(criteria).getResultList();
+    }
+
+    @Override
+    public List<Long> findDeletedTaskIds(long since, long upTo) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Long> criteria = cb.createQuery(Long.class);
+        Root<TaskTombstone> tombstone = criteria.from(TaskTombstone.class);
+        Path<Long> changeSeq = tombstone.get(TaskQuery.ATTR_CHANGESEQ);
+        criteria.select(tombstone.get("taskId"))
+            .where(cb.greaterThan(changeSeq, since), cb.lessThanOrEqualTo(changeSeq, upTo))
+            .orderBy(cb.asc(changeSeq), cb.asc(tombstone.get("taskId")));
+        return entityManager.createQuery(criteria).getResultList();
+    }
+
+    @Override
+    public void saveTombstones(List<Long> taskIds, long changeSeq) {
+        // Inserted in JDBC batches when the transaction flushes (hibernate.jdbc.batch_size)
+        for (Long taskId : taskIds) {
+            entityManager.persist(new TaskTombstone(taskId, changeSeq));
+        }
+    }
+
+    @Override
+    public long maxExpiredTombstoneSeq(LocalDateTime before) {
+        Long changeSeq = entityManager.createQuery(
+                "select max(t.changeSeq) from TaskTombstone t where t.deleted < :before or t.deleted is null", Long.class)
+            .setParameter("before", before)
+            .getSingleResult();
+        return changeSeq == null ? 0 : changeSeq;
+    }
+
+    @Override
+    public long minTombstoneSeq() {
+        Long changeSeq = entityManager.createQuery("select min(t.changeSeq) from TaskTombstone t", Long.class).getSingleResult();
+        return changeSeq == null ? 0 : changeSeq;
+    }
+
+    @Override
+    @Transactional
+    public int deleteTombstonesBelow(long changeSeq) {
+        return entityManager.createQuery("delete from TaskTombstone t where t.changeSeq < :changeSeq")
+            .setParameter("changeSeq", changeSeq)
+            .executeUpdate();
+    }
+
+    @Override
+    public long maxChangeSeq() {
+        Long tasks = entityManager.createQuery("select max(t.changeSeq) from MaintenanceTask t", Long.class).getSingleResult();
+        Long tombstones = entityManager.createQuery("select max(t.changeSeq) from TaskTombstone t", Long.class).getSingleResult();
+        return Math.max(tasks == null ? 0 : tasks, tombstones == null ? 0 : tombstones);
+    }
+
+    private static List<Predicate> pagePredicates(TaskQuery query, Root<MaintenanceTask> task, CriteriaBuilder cb) {
+        // The filters, and with a cursor, the seek past the cursor row
+        List<Predicate> predicates = query.filterPredicates(task, cb);
+        TaskCursor cursor = query.getCursor();
+        if (cursor != null) {
+            boolean backward = cursor.isBackward();
+            // Seek past the cursor row. The leading severity condition is redundant,
+            // but it lets the database start a range scan on the listing index instead of
+            // evaluating the OR chain against every row.
+            Path<TaskSeverity> severity = task.get(TaskQuery.ATTR_SEVERITY);
+            Path<LocalDateTime> registered = task.get(TaskQuery.ATTR_REGISTERED);
+            Path<Long> id = task.get(TaskQuery.ATTR_ID);
+            predicates.add(backward ? cb.lessThanOrEqualTo(severity, cursor.getSeverity())
+                : cb.greaterThanOrEqualTo(severity, cursor.getSeverity()));
+            predicates.add(cb.or(
+                past(cb, severity, cursor.getSeverity(), backward),
+                cb.and(cb.equal(severity, cursor.getSeverity()), cb.or(
+                    past(cb, registered, cursor.getRegistered(), backward),
+                    cb.and(cb.equal(registered, cursor.getRegistered()), past(cb, id, cursor.getId(), backward))))));
+        }
+        return predicates;
+    }
+
+    private static List<Order> listingOrder(CriteriaBuilder cb, Root<MaintenanceTask> task, boolean descending) {
+        // severity, registered, id: the order of the listing index
+        if (descending) {
+            return List.of(cb.desc(task.get(TaskQuery.ATTR_SEVERITY)), cb.desc(task.get(TaskQuery.ATTR_REGISTERED)), cb.desc(task.get(TaskQuery.ATTR_ID)));
+        }
+        return List.of(cb.asc(task.get(TaskQuery.ATTR_SEVERITY)), cb.asc(task.get(TaskQuery.ATTR_REGISTERED)), cb.asc(task.get(TaskQuery.ATTR_ID)));
+    }
+
+    private static <T extends Comparable<? super T>> Predicate past(CriteriaBuilder cb, Expression<T> column, T value, boolean backward) {
+        // Strictly after the value in the reading direction
+        return backward ? cb.lessThan(column, value) : cb.greaterThan(column, value);
+    }
+}
@@ -0,0 +1,21 @@
+package com.etteplan.servicemanual.maintenancetask;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+// For endpoints that can't return the error message themselves, e.g. because they return a Flux.
+// Most endpoints catch QueryParameterException and answer 400 on their own.
+
+@ControllerAdvice
+class QueryParameterAdvice {
+
+    @ResponseBody
+    @ExceptionHandler(QueryParameterException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    String queryParameterHandler(QueryParameterException ex) {
+        return ex.getMessage();
+    }
+}
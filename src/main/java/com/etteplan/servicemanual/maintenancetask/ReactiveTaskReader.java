@@ -0,0 +1,61 @@
+package com.etteplan.servicemanual.maintenancetask;
+
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+import io.r2dbc.spi.Row;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/* Non-blocking read path for task listings: the same filters as TaskFetcher, read with R2DBC from the same H2 database.
+ * Tasks are emitted one by one as the subscriber asks for them, so the controller streams them out without a list
+ * of the whole result, and without a thread waiting for the next row in between.
+ * Read only: everything that writes tasks goes through JPA, which keeps the caches, counters and events up to date.
+ * The ConnectionFactory is created here and deliberately not registered as a bean, because Spring Boot stops
+ * configuring the JDBC DataSource (and with it JPA) once a ConnectionFactory bean exists.
+ * For the same reason Boot's own R2dbcAutoConfiguration is excluded in application.properties. */
+
+@Component
+class ReactiveTaskReader {
+
+    private static final String SELECT = "select id, device_id, severity, status, description, registered, change_seq from maintenance_task";
+    // The listing order, as in TaskFetcher
+    private static final String ORDER = " order by severity, registered, id";
+
+    private final DatabaseClient databaseClient;
+
+    ReactiveTaskReader(@Value("${servicemanual.r2dbc.url}") String url, @Value("${spring.datasource.username}") String username,
+            @Value("${spring.datasource.password}") String password) {
+        ConnectionFactoryOptions options = ConnectionFactoryOptions.parse(url).mutate()
+            .option(ConnectionFactoryOptions.USER, username)
+            .option(ConnectionFactoryOptions.PASSWORD, password)
+            .build();
+        this.databaseClient = DatabaseClient.create(ConnectionFactories.get(options));
+    }
+
+    Flux<MaintenanceTask> streamTasks(TaskQuery query) {
+        Map<String, Object> bindings = new LinkedHashMap<>();
+        DatabaseClient.GenericExecuteSpec statement = databaseClient.sql(SELECT + query.sqlWhereClause(bindings) + ORDER);
+        for (Map.Entry<String, Object> binding : bindings.entrySet()) {
+            statement = statement.bind(binding.getKey(), binding.getValue());
+        }
+        // The embedded H2 driver does its work on the thread that requests rows,
+        // so requests are moved off the servlet container's threads
+        return statement.map((row, metadata) -> toTask(row)).all().subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private static MaintenanceTask toTask(Row row) {
+        Number changeSeq = (Number) row.get("change_seq");
+        return MaintenanceTask.stored(((Number) row.get("id")).longValue(), ((Number) row.get("device_id")).longValue(),
+            TaskSeverity.fromRank(((Number) row.get("severity")).intValue()), TaskStatus.values()[((Number) row.get("status")).intValue()],
+            row.get("description", String.class), row.get("registered", LocalDateTime.class), changeSeq == null ? null : changeSeq.longValue());
+    }
+}
@@ -0,0 +1,102 @@
+package com.etteplan.servicemanual.maintenancetask;
+
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.boot.autoconfigure.orm.jpa.EntityManagerFactoryDependsOnPostProcessor;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+/* Converts maintenance_task.severity in an existing database from the enum name (VARCHAR)
+ * to the numeric rank (TINYINT) that TaskSeverityConverter stores.
+ * Hibernate's schema update can add columns and indexes, but it never changes the type of an existing column,
+ * so this runs before the EntityManagerFactory is built. The indexes that contain severity are dropped here,
+ * and Hibernate's schema update recreates them on the new column right after.
+ * Every step checks the current state of the table first, so a migration that was interrupted
+ * simply continues on the next start, and a database that is already migrated (or new) is left alone. */
+
+@Component
+class SeverityRankMigration implements InitializingBean {
+
+    private static final String TABLE = "maintenance_task";
+    private static final String COLUMN = "severity";
+    private static final String RANK_COLUMN = "severity_rank";
+
+    private final DataSource dataSource;
+
+    SeverityRankMigration(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    // Makes the EntityManagerFactory (and with it Hibernate's schema update) wait for the migration
+    @Component
+    static class EntityManagerFactoryDependency extends EntityManagerFactoryDependsOnPostProcessor {
+        EntityManagerFactoryDependency() {
+            super(SeverityRankMigration.class);
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() throws SQLException {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            DatabaseMetaData metaData = connection.getMetaData();
+            Integer severityType = columnType(metaData, COLUMN);
+            if (severityType != null && (severityType == Types.VARCHAR || severityType == Types.CHAR)) {
+                for (String index : indexesOn(metaData, COLUMN)) {
+                    statement.execute("drop index if exists " + index);
+                }
+                statement.execute(String.format("alter table %s add column if not exists %s tinyint", TABLE, RANK_COLUMN));
+                statement.execute(String.format("update %s set %s = %s", TABLE, RANK_COLUMN, rankCase()));
+                statement.execute(String.format("alter table %s drop column %s", TABLE, COLUMN));
+                severityType = null;
+            }
+            if (severityType == null && columnType(metaData, RANK_COLUMN) != null) {
+                statement.execute(String.format("alter table %s alter column %s rename to %s", TABLE, RANK_COLUMN, COLUMN));
+                statement.execute(String.format("alter table %s alter column %s set not null", TABLE, COLUMN));
+                System.out.println("Migrated task severities to numeric ranks");
+            }
+        }
+    }
+
+    private static String rankCase() {
+        // case severity when 'UNIMPORTANT' then 3 when ... end
+        StringBuilder sql = new StringBuilder("case ").append(COLUMN);
+        for (TaskSeverity severity : TaskSeverity.values()) {
+            sql.append(String.format(" when '%s' then %d", severity.name(), severity.getRank()));
+        }
+        return sql.append(" end").toString();
+    }
+
+    private static Integer columnType(DatabaseMetaData metaData, String column) throws SQLException {
+        // The java.sql.Types type of the column, or null if the table or the column doesn't exist
+        try (ResultSet columns = metaData.getColumns(null, null, identifier(metaData, TABLE), identifier(metaData, column))) {
+            return columns.next() ? columns.getInt("DATA_TYPE") : null;
+        }
+    }
+
+    private static List<String> indexesOn(DatabaseMetaData metaData, String column) throws SQLException {
+        List<String> indexes = new ArrayList<>();
+        try (ResultSet info = metaData.getIndexInfo(null, null, identifier(metaData, TABLE), false, false)) {
+            while (info.next()) {
+                String indexName = info.getString("INDEX_NAME");
+                if (identifier(metaData, column).equals(info.getString("COLUMN_NAME")) && !indexes.contains(indexName)) {
+                    indexes.add(indexName);
+                }
+            }
+        }
+        return indexes;
+    }
+
+    private static String identifier(DatabaseMetaData metaData, String name) throws SQLException {
+        // Unquoted identifiers are stored in upper case by H2
+        return metaData.storesUpperCaseIdentifiers() ? name.toUpperCase() : name;
+    }
+}
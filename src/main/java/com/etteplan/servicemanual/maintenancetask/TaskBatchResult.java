@@ -0,0 +1,88 @@
+package com.etteplan.servicemanual.maintenancetask;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/* Response body of the batch task creation endpoint.
+ * Contains one item per task in the request body, in the same order,
+ * telling whether that task was created (and its new id), or why it wasn't. */
+
+class TaskBatchResult {
+
+    private int created = 0;
+    private int failed = 0;
+    private final List<Item> results = new ArrayList<>();
+
+    public int getCreated() {
+        return this.created;
+    }
+
+    public int getFailed() {
+        return this.failed;
+    }
+
+    public List<Item> getResults() {
+        return this.results;
+    }
+
+    Item add(int index) {
+        Item item = new Item(index);
+        results.add(item);
+        return item;
+    }
+
+    void count() {
+        // Tally up once all items have their final status
+        created = 0;
+        failed = 0;
+        for (Item item : results) {
+            if (item.status == 201) {
+                created++;
+            }
+            else {
+                failed++;
+            }
+        }
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    static class Item {
+
+        private final int index; // Position of the task in the request body, starting from 0
+        private int status; // HTTP status that the single task endpoint would have returned
+        private Long id;
+        private String error;
+
+        Item(int index) {
+            this.index = index;
+        }
+
+        public int getIndex() {
+            return this.index;
+        }
+
+        public int getStatus() {
+            return this.status;
+        }
+
+        public Long getId() {
+            return this.id;
+        }
+
+        public String getError() {
+            return this.error;
+        }
+
+        void created(Long id) {
+            this.status = 201;
+            this.id = id;
+        }
+
+        void failed(int status, String error) {
+            this.status = status;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.etteplan.servicemanual.maintenancetask;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/* Change sequence numbers for GET /api/tasks/changes.
+ * Every transaction that writes tasks takes the next number of a single increasing sequence. Created and updated
+ * tasks store it in their changeSeq column (see MaintenanceTask's entity callbacks), and deleted tasks leave a
+ * TaskTombstone with it, written just before the transaction commits. "Changed since N" is then a range scan on
+ * changeSeq > N, whatever the size of the table.
+ * Numbers are taken before the transaction commits, so a transaction with a lower number can still be running
+ * when one with a higher number has committed. safeToken() therefore stops below the oldest transaction that
+ * hasn't finished: a client that syncs up to the token never skips a change that becomes visible later.
+ * The sequence continues from the highest number in the database on every start (see load).
+ * Old tombstones are pruned (see TombstonePruner), so tokens below horizon() can't be answered with the deletes
+ * since them any more: those clients get a full response instead. */
+
+public final class TaskChanges {
+
+    // Resource key of the current transaction's state
+    private static final Object KEY = new Object();
+
+    private static long sequence = 0;
+    // Tombstones with numbers up to and including it may have been pruned
+    private static long horizon = 0;
+    // Numbers of the transactions that haven't committed or rolled back yet
+    private static final TreeSet<Long> pending = new TreeSet<>();
+
+    private static MaintenanceTaskRepository taskRepository;
+
+    private static final class Transaction {
+        final long changeSeq;
+        final List<Long> deleted = new ArrayList<>();
+
+        Transaction(long changeSeq) {
+            this.changeSeq = changeSeq;
+        }
+    }
+
+    // Private constructor because we want a static class
+    private TaskChanges() {}
+
+    // Continues the sequence from the database
+    public static synchronized void load(MaintenanceTaskRepository repository) {
+        taskRepository = repository;
+        sequence = Math.max(sequence, repository.maxChangeSeq());
+        // Pruning keeps the newest expired tombstones, so the oldest tombstone marks where it stopped.
+        // Before the first pruning this is lower than needed: a token from before the first delete gets a full response.
+        long oldest = repository.minTombstoneSeq();
+        horizon = Math.max(horizon, oldest == 0 ? 0 : oldest - 1);
+    }
+
+    // Every change up to and including the token has either committed or rolled back
+    static synchronized long safeToken() {
+        return pending.isEmpty() ? sequence : pending.first() - 1;
+    }
+
+    // A token below it may miss pruned deletes
+    static synchronized long horizon() {
+        return horizon;
+    }
+
+    // Raised before tombstones are pruned, so a reader never trusts a token whose tombstones are being removed
+    static synchronized void pruning(long newHorizon) {
+        horizon = Math.max(horizon, newHorizon);
+    }
+
+    // Highest number handed out so far. A token above it isn't one of ours.
+    static synchronized long latest() {
+        return sequence;
+    }
+
+    // The change sequence number of the current transaction. Only the first call in a transaction takes a new one.
+    static long current() {
+        return transaction().changeSeq;
+    }
+
+    // Writes tombstones for the tasks when the current transaction commits
+    static void deleted(Long id) {
+        transaction().deleted.add(id);
+    }
+
+    static void deletedAll(List<Long> ids) {
+        transaction().deleted.addAll(ids);
+    }
+
+    private static Transaction transaction() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            // Tasks are only written in transactions. Anything else gets a number but no tombstones.
+            return new Transaction(next(false));
+        }
+        Transaction transaction = (Transaction) TransactionSynchronizationManager.getResource(KEY);
+        if (transaction != null) {
+            return transaction;
+        }
+        Transaction started = new Transaction(next(true));
+        TransactionSynchronizationManager.bindResource(KEY, started);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                // Still inside the transaction: the tombstones commit or roll back together with the deletes
+                if (!started.deleted.isEmpty()) {
+                    taskRepository.saveTombstones(started.deleted, started.changeSeq);
+                }
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(KEY);
+                finished(started.changeSeq);
+            }
+        });
+        return started;
+    }
+
+    private static synchronized long next(boolean track) {
+        // Taking the number and marking it pending happen together, so safeToken never sees one without the other
+        sequence++;
+        if (track) {
+            pending.add(sequence);
+        }
+        return sequence;
+    }
+
+    private static synchronized void finished(long changeSeq) {
+        pending.remove(changeSeq);
+    }
+}
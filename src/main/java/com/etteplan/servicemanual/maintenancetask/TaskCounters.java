@@ -0,0 +1,103 @@
+package com.etteplan.servicemanual.maintenancetask;
+
+import com.etteplan.servicemanual.DataVersion;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/* Task counts per device, status and severity, kept in memory so that they can be read
+ * without a query, e.g. "open critical tasks of every device" for a display that refreshes every few seconds.
+ * Loaded once at startup with a GROUP BY (see ServiceManualApplication.initDatabase), and kept up to date by
+ * MaintenanceTask's entity callbacks and by bulk deletes, after the transaction that changed the tasks has committed.
+ * Each device has one AtomicLongArray with a counter per (status, severity), so updates never lock,
+ * and updates to different devices don't even touch the same memory. */
+
+public final class TaskCounters {
+
+    private static final int SEVERITIES = TaskSeverity.values().length;
+    private static final int CELLS = TaskStatus.values().length * SEVERITIES;
+
+    private static volatile ConcurrentHashMap<Long, AtomicLongArray> counters = new ConcurrentHashMap<>();
+
+    // Private constructor because we want a static class
+    private TaskCounters() {}
+
+    // Replaces all counters with the counts in the database
+    public static void load(MaintenanceTaskRepository taskRepository) {
+        ConcurrentHashMap<Long, AtomicLongArray> loaded = new ConcurrentHashMap<>();
+        List<String> groupBy = List.of(TaskQuery.ATTR_DEVICEID, TaskQuery.ATTR_STATUS, TaskQuery.ATTR_SEVERITY);
+        for (Map<String, Object> group : taskRepository.countTasks(new TaskQuery(), groupBy)) {
+            add(loaded, group, 1);
+        }
+        counters = loaded;
+    }
+
+    // Number of tasks per device that have the given status and severity. Null matches any.
+    // Reads one array per device, the database isn't involved.
+    static Map<Long, Long> perDevice(TaskStatus status, TaskSeverity severity) {
+        Map<Long, Long> counts = new TreeMap<>();
+        for (Map.Entry<Long, AtomicLongArray> device : counters.entrySet()) {
+            long count = 0;
+            for (TaskStatus s : TaskStatus.values()) {
+                for (TaskSeverity v : TaskSeverity.values()) {
+                    if ((status == null || status == s) && (severity == null || severity == v)) {
+                        count += device.getValue().get(cell(s, v));
+                    }
+                }
+            }
+            counts.put(device.getKey(), count);
+        }
+        return counts;
+    }
+
+    // All of these apply once the current transaction commits
+
+    static void added(Long deviceId, TaskStatus status, TaskSeverity severity) {
+        DataVersion.afterCommit(() -> add(counters, deviceId, status, severity, 1));
+    }
+
+    static void removed(Long deviceId, TaskStatus status, TaskSeverity severity) {
+        DataVersion.afterCommit(() -> add(counters, deviceId, status, severity, -1));
+    }
+
+    static void moved(Long fromDeviceId, TaskStatus fromStatus, TaskSeverity fromSeverity,
+            Long toDeviceId, TaskStatus toStatus, TaskSeverity toSeverity) {
+        DataVersion.afterCommit(() -> {
+            add(counters, fromDeviceId, fromStatus, fromSeverity, -1);
+            add(counters, toDeviceId, toStatus, toSeverity, 1);
+        });
+    }
+
+    // Groups as returned by MaintenanceTaskRepositoryCustom.countTasks, grouped by deviceId, status and severity
+    static void removedAll(List<Map<String, Object>> groups) {
+        DataVersion.afterCommit(() -> {
+            for (Map<String, Object> group : groups) {
+                add(counters, group, -1);
+            }
+        });
+    }
+
+    static void addedAll(List<Map<String, Object>> groups) {
+        DataVersion.afterCommit(() -> {
+            for (Map<String, Object> group : groups) {
+                add(counters, group, 1);
+            }
+        });
+    }
+
+    private static void add(ConcurrentHashMap<Long, AtomicLongArray> target, Map<String, Object> group, int sign) {
+        add(target, (Long) group.get(TaskQuery.ATTR_DEVICEID), (TaskStatus) group.get(TaskQuery.ATTR_STATUS),
+            (TaskSeverity) group.get(TaskQuery.ATTR_SEVERITY), sign * (Long) group.get(MaintenanceTaskRepositoryCustom.COUNT));
+    }
+
+    private static void add(ConcurrentHashMap<Long, AtomicLongArray> target, Long deviceId, TaskStatus status, TaskSeverity severity, long delta) {
+        target.computeIfAbsent(deviceId, id -> new AtomicLongArray(CELLS)).addAndGet(cell(status, severity), delta);
+    }
+
+    private static int cell(TaskStatus status, TaskSeverity severity) {
+        return status.ordinal() * SEVERITIES + severity.ordinal();
+    }
+}
@@ -0,0 +1,91 @@
+package com.etteplan.servicemanual.maintenancetask;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/* Opaque keyset pagination cursor.
+ * A cursor remembers the sort key (severity, registered, id) of the row at the edge of a page,
+ * and whether the next page should be read after that row (forward) or before it (backward).
+ * To the client it is just a URL-safe string, which we hand out in the next/prev links. */
+
+final class TaskCursor {
+
+    private static final String SEPARATOR = "|";
+    private static final char FORWARD = 'n';
+    private static final char BACKWARD = 'p';
+
+    private static final String ERR_MALFORMED = "Bad request: malformed cursor '%s'. Use the next/prev links of a previous response.";
+
+    private final boolean backward;
+    private final TaskSeverity severity;
+    private final LocalDateTime registered;
+    private final Long id;
+
+    private TaskCursor(boolean backward, TaskSeverity severity, LocalDateTime registered, Long id) {
+        this.backward = backward;
+        this.severity = severity;
+        this.registered = registered;
+        this.id = id;
+    }
+
+    // Cursor pointing to the rows that come after the given task
+    static TaskCursor after(MaintenanceTask task) {
+        return new TaskCursor(false, task.getSeverity(), task.getRegistered(), task.getId());
+    }
+
+    // Cursor pointing to the rows that come before the given task
+    static TaskCursor before(MaintenanceTask task) {
+        return new TaskCursor(true, task.getSeverity(), task.getRegistered(), task.getId());
+    }
+
+    // Same for a row of a sparse listing, which has the sort key whenever the listing is paged
+    static TaskCursor after(TaskFields row) {
+        return new TaskCursor(false, (TaskSeverity) row.get(TaskQuery.ATTR_SEVERITY), (LocalDateTime) row.get(TaskQuery.ATTR_REGISTERED), row.getId());
+    }
+
+    static TaskCursor before(TaskFields row) {
+        return new TaskCursor(true, (TaskSeverity) row.get(TaskQuery.ATTR_SEVERITY), (LocalDateTime) row.get(TaskQuery.ATTR_REGISTERED), row.getId());
+    }
+
+    boolean isBackward() {
+        return this.backward;
+    }
+
+    TaskSeverity getSeverity() {
+        return this.severity;
+    }
+
+    LocalDateTime getRegistered() {
+        return this.registered;
+    }
+
+    Long getId() {
+        return this.id;
+    }
+
+    String encode() {
+        String raw = (backward ? BACKWARD : FORWARD) + SEPARATOR + severity.name() + SEPARATOR + registered + SEPARATOR + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static TaskCursor decode(String value) throws QueryParameterException {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(value), StandardCharsets.UTF_8);
+            String[] parts = raw.split("\\" + SEPARATOR);
+            if (parts.length != 4 || parts[0].length() != 1) {
+                throw new QueryParameterException(String.format(ERR_MALFORMED, value));
+            }
+            char direction = parts[0].charAt(0);
+            if (direction != FORWARD && direction != BACKWARD) {
+                throw new QueryParameterException(String.format(ERR_MALFORMED, value));
+            }
+            return new TaskCursor(direction == BACKWARD, TaskSeverity.valueOf(parts[1]), LocalDateTime.parse(parts[2]), Long.parseLong(parts[3]));
+        }
+        catch (IllegalArgumentException | NullPointerException | DateTimeParseException ex) {
+            // Base64 decoding, enum and number conversion all end up here
+            throw new QueryParameterException(String.format(ERR_MALFORMED, value));
+        }
+    }
+}
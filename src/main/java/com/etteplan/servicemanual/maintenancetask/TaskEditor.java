@@ -1,11 +1,12 @@
 package com.etteplan.servicemanual.maintenancetask;
 
-import com.etteplan.servicemanual.factorydevice.FactoryDeviceRepository;
+import com.etteplan.servicemanual.factorydevice.FactoryDeviceIndex;
 import com.etteplan.servicemanual.factorydevice.FactoryDeviceNotFoundException;
 
 import java.time.LocalDateTime;
 import java.time.format.DateTimeParseException;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /* Static class to edit existing MaintenanceTask entites based on the given request body.
@@ -15,11 +16,12 @@ import java.util.Map;
  * FactoryDeviceNotFound is handled implicitly by the controller because it has an attached
  * FactoryDeviceNotFoundAdvice class that tells the controller how to handle it.
  * Therefore we don't need to handle it manually ourselves in the controller.
- * We only handle RequestBodyException there. */
+ * We only handle RequestBodyException there.
+ * The controller uses patchTask, which never loads the task as an entity: it reads the old columns with a locking
+ * select and writes only the changed ones (see MaintenanceTaskRepositoryCustom.patchTask). */
 
 public final class TaskEditor {
     
-    private static FactoryDeviceRepository deviceRepository;
     private static MaintenanceTaskRepository taskRepository;
 
     // Request body property names
@@ -43,18 +45,23 @@ public final class TaskEditor {
         taskRepository = repository;
     }
 
-    protected static void setDeviceRepository(FactoryDeviceRepository repository) {
-        deviceRepository = repository;
+    protected static MaintenanceTask patchTask(Long taskId, Map<String, String> requestBody) throws RequestBodyException, FactoryDeviceNotFoundException {
+        // Edits the task without loading it as an entity: the old columns are read with a locking select, for the
+        // counters and the response, and the validated properties are written with an UPDATE of only those columns
+        // (see MaintenanceTaskRepositoryCustom.patchTask). Throws MaintenanceTaskNotFoundException if no row has the id.
+        Map<String, Object> changes = parseChanges(requestBody);
+        return taskRepository.patchTask(taskId, changes)
+            .orElseThrow(() -> new MaintenanceTaskNotFoundException(taskId));
     }
 
-    protected static MaintenanceTask editTask(MaintenanceTask task, Map<String, String> requestBody) throws RequestBodyException, FactoryDeviceNotFoundException {
-        // Edits the task according to the given request body.
-        // If successful, returns the edited and saved task object.
-        // If the request body is empty, contains unknown properties, or incorrect values for a property,
-        // RequestBodyException will be thrown and the task won't be editd.
+    protected static Map<String, Object> parseChanges(Map<String, String> requestBody) throws RequestBodyException, FactoryDeviceNotFoundException {
+        // Validates the request body and converts it to MaintenanceTask attribute values, keyed by attribute name
+        // (the request body property names are the attribute names). The task isn't read here,
+        // and a deviceId is checked against FactoryDeviceIndex in memory.
         if (requestBody.isEmpty()) {
             throw new RequestBodyException("Error: empty request body");
         }
+        Map<String, Object> changes = new LinkedHashMap<>();
         for(String param : requestBody.keySet()) {
             String value = requestBody.get(param);
             switch (param) {
@@ -67,8 +74,8 @@ public final class TaskEditor {
                     catch (IllegalArgumentException ex) {
                         throw new RequestBodyException(ERR_DEVICEID);
                     }
-                    // Now check that the device exists
-                    if (!deviceRepository.existsById(deviceId)) {
+                    // Now check that the device exists. In memory, no database query.
+                    if (!FactoryDeviceIndex.contains(deviceId)) {
                         // No such device
                         // We don't need to handle this in the controller
                         // because of the exception advice.
@@ -76,13 +83,13 @@ public final class TaskEditor {
                         throw new FactoryDeviceNotFoundException(deviceId);
                     }
                     // Checks passed
-                    task.setDeviceId(deviceId);
+                    changes.put(RP_DEVICEID, deviceId);
                     break;
 
                 case RP_STATUS:
                     // status
                     try {
-                        task.setStatus(TaskStatus.valueOf(value));
+                        changes.put(RP_STATUS, TaskStatus.valueOf(value));
                     }
                     catch (IllegalArgumentException | NullPointerException ex) {
                         throw new RequestBodyException(ERR_STATUS);
@@ -92,7 +99,7 @@ public final class TaskEditor {
                 case RP_SEVERITY:
                     // severity
                     try {
-                        task.setSeverity(TaskSeverity.valueOf(value));
+                        changes.put(RP_SEVERITY, TaskSeverity.valueOf(value));
                     }
                     catch (IllegalArgumentException | NullPointerException ex) {
                         throw new RequestBodyException(ERR_SEVERITY);
@@ -106,13 +113,13 @@ public final class TaskEditor {
                     }
                     // Valid desc. Escape the HTML, we don't want XSS attacks, do we?
                     value = value.replaceAll("<", "&lt;").replaceAll(">", "&gt;");
-                    task.setDescription(value);
+                    changes.put(RP_DESCRIPTION, value);
                     break;
 
                 case RP_REGISTERED:
                     // Throws DateTimeParseException if parsing fails
                     try {
-                        task.setRegistered(LocalDateTime.parse(value));
+                        changes.put(RP_REGISTERED, LocalDateTime.parse(value));
                     }
                     catch (DateTimeParseException | NullPointerException ex) {
                         throw new RequestBodyException(ERR_REGISTERED);
@@ -124,7 +131,31 @@ public final class TaskEditor {
                     throw new RequestBodyException(String.format(ERR_UNKNOWN, param));
             }
         }
-        // Task object edited. Save and return it.
-        return taskRepository.save(task);
+        return changes;
+    }
+
+    protected static void applyChanges(MaintenanceTask task, Map<String, Object> changes) {
+        // Sets the attributes returned by parseChanges on the given task
+        for (Map.Entry<String, Object> change : changes.entrySet()) {
+            switch (change.getKey()) {
+                case RP_DEVICEID:
+                    task.setDeviceId((Long) change.getValue());
+                    break;
+                case RP_STATUS:
+                    task.setStatus((TaskStatus) change.getValue());
+                    break;
+                case RP_SEVERITY:
+                    task.setSeverity((TaskSeverity) change.getValue());
+                    break;
+                case RP_DESCRIPTION:
+                    task.setDescription((String) change.getValue());
+                    break;
+                case RP_REGISTERED:
+                    task.setRegistered((LocalDateTime) change.getValue());
+                    break;
+                default:
+                    throw new IllegalArgumentException(change.getKey());
+            }
+        }
     }
 }
@@ -0,0 +1,159 @@
+package com.etteplan.servicemanual.maintenancetask;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.etteplan.servicemanual.DataVersion;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/* Server-sent events for task changes, streamed by GET /api/tasks/events.
+ * Events, published by MaintenanceTask's entity callbacks and by bulk deletes once the change has committed:
+ *   created, updated: the task as JSON
+ *   deleted: {"id": <taskId>}
+ *   reset: many tasks changed at once, clients should fetch their listing again
+ * Publishing never blocks and never writes to a connection: each subscriber has a bounded queue,
+ * and its events are written by a sender thread. A subscriber that falls so far behind that its queue fills up
+ * gets no more events and is disconnected. EventSource reconnects by itself, and the client fetches its
+ * listing again, which is cheaper than catching up on an arbitrarily long backlog.
+ * Writes block while the client's TCP buffer is full. A client that stops reading holds its own sender thread
+ * until Tomcat's write timeout (the connector's connection timeout) fails the write, but never another subscriber's:
+ * a subscriber uses at most one sender thread at a time, and the pool grows with the subscribers that have events to send. */
+
+final class TaskEvents {
+
+    static final String CREATED = "created";
+    static final String UPDATED = "updated";
+    static final String DELETED = "deleted";
+    static final String RESET = "reset";
+
+    // Events a subscriber may have waiting before it's disconnected
+    private static final int BUFFER = 256;
+    // Clients reconnect after this, which also cleans up connections that were dropped silently
+    private static final long TIMEOUT = Duration.ofMinutes(30).toMillis();
+
+    private static final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    // Idle threads end after a minute
+    private static final ExecutorService sender = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "task-events");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Private constructor because we want a static class
+    private TaskEvents() {}
+
+    private static final class Event {
+        final String name;
+        final Object data;
+
+        Event(String name, Object data) {
+            this.name = name;
+            this.data = data;
+        }
+    }
+
+    private static final class Subscriber {
+        final SseEmitter emitter = new SseEmitter(TIMEOUT);
+        final BlockingQueue<Event> queue = new ArrayBlockingQueue<>(BUFFER);
+        // Whether a sender thread is draining the queue, or about to
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        volatile boolean overflowed;
+
+        void offer(Event event) {
+            if (!queue.offer(event)) {
+                // No more events for it. Completing the emitter is left to the sender thread:
+                // the emitter's methods are synchronized, and a send may be blocked on the connection.
+                overflowed = true;
+                subscribers.remove(this);
+            }
+            schedule();
+        }
+
+        void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                sender.execute(this::drain);
+            }
+        }
+
+        void drain() {
+            try {
+                if (overflowed) {
+                    subscribers.remove(this);
+                    emitter.complete();
+                    return;
+                }
+                Event event;
+                while ((event = queue.poll()) != null) {
+                    if (overflowed) {
+                        // Fell behind while we were sending
+                        subscribers.remove(this);
+                        emitter.complete();
+                        return;
+                    }
+                    emitter.send(SseEmitter.event().name(event.name).data(event.data, MediaType.APPLICATION_JSON));
+                }
+            }
+            catch (IOException | IllegalStateException ex) {
+                // The client is gone, or the emitter already completed
+                subscribers.remove(this);
+                return;
+            }
+            finally {
+                scheduled.set(false);
+            }
+            if (!queue.isEmpty() || overflowed) {
+                // Published while we were finishing
+                schedule();
+            }
+        }
+    }
+
+    static SseEmitter subscribe() {
+        Subscriber subscriber = new Subscriber();
+        subscriber.emitter.onCompletion(() -> subscribers.remove(subscriber));
+        subscriber.emitter.onTimeout(() -> subscribers.remove(subscriber));
+        subscriber.emitter.onError(ex -> subscribers.remove(subscriber));
+        subscribers.add(subscriber);
+        return subscriber.emitter;
+    }
+
+    // These publish once the current transaction commits. Tasks are copied right away,
+    // so later changes to the entity don't leak into the event.
+
+    static void created(MaintenanceTask task) {
+        publish(new Event(CREATED, task.copy()));
+    }
+
+    static void updated(MaintenanceTask task) {
+        publish(new Event(UPDATED, task.copy()));
+    }
+
+    static void deleted(Long taskId) {
+        publish(new Event(DELETED, Map.of(TaskQuery.ATTR_ID, taskId)));
+    }
+
+    static void reset() {
+        publish(new Event(RESET, Map.of()));
+    }
+
+    private static void publish(Event event) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        DataVersion.afterCommit(() -> {
+            for (Subscriber subscriber : subscribers) {
+                subscriber.offer(event);
+            }
+        });
+    }
+}
@@ -0,0 +1,75 @@
+package com.etteplan.servicemanual.maintenancetask;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/* Writes tasks as newline-delimited JSON (one task object per line) straight to the response.
+ * Tasks are read from a database cursor and written one by one, and each task is detached
+ * from the persistence context as soon as it has been written,
+ * so memory use doesn't depend on how many tasks match the query. */
+
+@Component
+class TaskExporter {
+
+    // Flush the response to the client every FLUSH_INTERVAL tasks
+    private static final int FLUSH_INTERVAL = 500;
+
+    private final MaintenanceTaskRepository taskRepository;
+    private final ObjectMapper objectMapper;
+    private final ObjectWriter taskWriter;
+    private final TransactionTemplate transactionTemplate;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    public TaskExporter(MaintenanceTaskRepository taskRepository, ObjectMapper objectMapper, PlatformTransactionManager transactionManager) {
+        this.taskRepository = taskRepository;
+        this.objectMapper = objectMapper;
+        // Flushing is up to us, not after every single task
+        this.taskWriter = objectMapper.writerFor(MaintenanceTask.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    StreamingResponseBody export(TaskQuery query) {
+        // The body is written later, on an async request thread.
+        // The stream needs an open transaction for as long as we're reading from it.
+        return outputStream -> transactionTemplate.executeWithoutResult(status -> {
+            try (Stream<MaintenanceTask> tasks = taskRepository.streamTasks(query)) {
+                JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream);
+                generator.setRootValueSeparator(null); // We write our own newlines
+                int written = 0;
+                Iterator<MaintenanceTask> iterator = tasks.iterator();
+                while (iterator.hasNext()) {
+                    MaintenanceTask task = iterator.next();
+                    taskWriter.writeValue(generator, task);
+                    generator.writeRaw('\n');
+                    entityManager.detach(task);
+                    if (++written % FLUSH_INTERVAL == 0) {
+                        generator.flush();
+                    }
+                }
+                generator.flush();
+            }
+            catch (IOException ex) {
+                // Most likely the client went away. Rolls back the (read-only) transaction.
+                throw new UncheckedIOException(ex);
+            }
+        });
+    }
+}
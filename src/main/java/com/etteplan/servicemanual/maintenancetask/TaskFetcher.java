@@ -1,14 +1,35 @@
 package com.etteplan.servicemanual.maintenancetask;
 
+import org.springframework.data.domain.Sort;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.Period;
+import java.time.format.DateTimeParseException;
 import java.util.Map;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Arrays;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /* Static class to fetch a list of tasks based on given query parameters.
  * Encountering unknown or malformed query parameters will
  * throw QueryParameterException.
  * If the query is correct but no tasks match the supplied parameters,
- * an empty list will be returned. */
+ * an empty list will be returned.
+ * Each filter takes a list of values, can be negated, and deviceId also takes ranges,
+ * e.g. "?deviceId=1..10&status=!CLOSED&severity=CRITICAL,IMPORTANT".
+ * 'registeredFrom' (inclusive) and 'registeredTo' (exclusive) limit the registration time.
+ * Listings can also be read page by page with the 'limit' and 'cursor' parameters.
+ * Pages are ordered by (severity, registered, id) and use keyset pagination:
+ * the cursor remembers where the previous page ended, so page N costs the same as page 1.
+ * 'fields' limits listings to the given task properties, e.g. "?fields=id,status"; only those columns are read. */
 
 public final class TaskFetcher {
  
@@ -17,29 +38,63 @@ public final class TaskFetcher {
     private static final String Q_DEVICEID = "deviceId";
     private static final String Q_STATUS = "status";
     private static final String Q_SEVERITY = "severity";
+    private static final String Q_REGISTERED_FROM = "registeredFrom";
+    private static final String Q_REGISTERED_TO = "registeredTo";
+    private static final String Q_LIMIT = "limit";
+    static final String Q_CURSOR = "cursor";
+    protected static final String Q_FIELDS = "fields";
+    // Only for counting tasks
+    private static final String Q_GROUP_BY = "groupBy";
+    // Only for changes
+    private static final String Q_SINCE = "since";
+    // Metrics tag of queries without filters
+    private static final String NO_FILTERS = "none";
+
+    // Page size used when a cursor is supplied without a limit, and the largest page we hand out
+    protected static final int DEFAULT_LIMIT = 50;
+    protected static final int MAX_LIMIT = 1000;
     
     // Some informational messages in case of an exception.
     private static final String unknownParam = "Bad request: unknown parameter '%s'. %s";
-    private static final String availableParams = String.format("Available query parameters: '%s', '%s', '%s'", Q_DEVICEID, Q_STATUS, Q_SEVERITY);
+    private static final String availableParams = String.format("Available query parameters: '%s', '%s', '%s', '%s', '%s', '%s', '%s', '%s'",
+        Q_DEVICEID, Q_STATUS, Q_SEVERITY, Q_REGISTERED_FROM, Q_REGISTERED_TO, Q_LIMIT, Q_CURSOR, Q_FIELDS);
+    private static final String availableCounterParams = String.format("Available query parameters: '%s', '%s'", Q_STATUS, Q_SEVERITY);
+    private static final String availableChangeParams = String.format("Available query parameters: '%s'", Q_SINCE);
+    private static final String availableSince = "Must be the token of a previous response.";
     private static final String notConvertable = "Bad request: could not convert parameter '%s'. %s";
     private static final String availableStatus = "Available values for status: 'OPEN', 'CLOSED'";
     private static final String availableSeverity = "Available values for severity: 'UNIMPORTANT', 'IMPORTANT', 'CRITICAL'";
+    private static final String availableRegistered = "Must be a date (2022-01-31), a date and time (2022-01-31T12:00:00), "
+        + "or a duration back from now (PT24H, P7D).";
+    private static final String emptyWindow = String.format("Bad request: '%s' must be before '%s'.", Q_REGISTERED_FROM, Q_REGISTERED_TO);
+    private static final String availableLimit = String.format("Limit must be an integer between 1 and %d.", MAX_LIMIT);
+    private static final String filterRequired = String.format("Bad request: updating tasks needs at least one filter: %s, %s, %s, %s or %s.",
+        Q_DEVICEID, Q_STATUS, Q_SEVERITY, Q_REGISTERED_FROM, Q_REGISTERED_TO);
+    private static final String pagingNotAllowed = String.format("Bad request: '%s', '%s' and '%s' can only be used when listing tasks.", Q_LIMIT, Q_CURSOR, Q_FIELDS);
     
-    /* Database Query Parameters represent a combined value between 1 and 7.
-     * Based on this value, we decide which database query function to call
-     * in order to retrieve tasks.
-     * Each query parameter has been assigned its own numerical value.
-     * The combination of these values tells us which parameters we need
-     * to pass to the JPA repository function.
-     * So for example, if we encounter the deviceId and status parameters in our query,
-     * the combined value will become 3. So we know then to call the function
-     * that retrieves tasks by deviceId and status, and pass to it only the parameters deviceId and status.
-     * So if we got a total of 6, filter tasks by status and severity, and only supply those parameters.
-     * If we got 7, filter by all three parameters. And so forth. */
-    
-    private static final int DQP_DEVICEID = 1;
-    private static final int DQP_STATUS = 2;
-    private static final int DQP_SEVERITY = 4;
+    // Filter syntax
+    private static final String NEGATION = "!";
+    private static final String LIST_SEPARATOR = ",";
+    private static final String RANGE_SEPARATOR = "..";
+    // The most values and ranges a single filter may have
+    protected static final int MAX_FILTER_VALUES = 1000;
+    private static final String filterSyntax = String.format("Filters take a comma separated list of values, at most %d, "
+        + "and are negated with a leading '!'. deviceId also takes ranges: '10..20', '10..', '..20'.", MAX_FILTER_VALUES);
+
+    // Attributes that can be requested with 'fields', in the order they are returned
+    private static final List<String> FIELDS = List.of(TaskQuery.ATTR_ID, TaskQuery.ATTR_DEVICEID, TaskQuery.ATTR_SEVERITY,
+        TaskQuery.ATTR_STATUS, TaskQuery.ATTR_DESCRIPTION, TaskQuery.ATTR_REGISTERED);
+    private static final String availableFields = String.format("Must be a comma separated list of task properties: %s", String.join(", ", FIELDS));
+
+    // Attributes that tasks can be grouped by when counting them
+    private static final List<String> GROUPS = List.of(TaskQuery.ATTR_DEVICEID, TaskQuery.ATTR_SEVERITY, TaskQuery.ATTR_STATUS);
+    private static final String availableGroups = String.format("Must be a comma separated list of: %s", String.join(", ", GROUPS));
+
+    // Length of an ISO date without a time, "2022-01-31"
+    private static final int DATE_LENGTH = 10;
+
+    // Listing order. The id makes it total, so that equal rows always come out in the same order.
+    private static final Sort LISTING_ORDER = Sort.by(TaskQuery.ATTR_SEVERITY, TaskQuery.ATTR_REGISTERED, TaskQuery.ATTR_ID);
 
     private static MaintenanceTaskRepository taskRepository;
 
@@ -53,56 +108,219 @@ public final class TaskFetcher {
     // Input parameters: Map<String, String> of query parameters.
     // Output: a list of MaintenanceTask objects retrieved from the database
     // according to the query parameters.
+    // Pagination parameters are not accepted here, because this is also what DELETE uses.
     
     protected static List<MaintenanceTask> fetchTasks(Map<String, String> parameters) throws QueryParameterException {
-        if (parameters.isEmpty()) {
-            // No parameters were actually supplied. Fetch all tasks.
-            return taskRepository.findAllByOrderBySeverityAscRegistered();
-        }
-        // Parameters were supplied. Parse the query. 
-        
-        int databaseMethod = 0; // Which JPA repository method to call, based on the parameters we encountered
-        Long deviceId = null;
+        TaskQuery query = parseFilters(parameters);
+        return TaskQueryMetrics.record("list", filterNames(query), () -> taskRepository.findAll(query, LISTING_ORDER), List::size);
+    }
+
+    // Deletes every task that matches the filter parameters, with set-based statements in the database.
+    // No task is loaded into memory, only counts per device, status and severity. Returns the number of deleted tasks.
+    
+    protected static int deleteTasks(Map<String, String> parameters) throws QueryParameterException {
+        TaskQuery query = parseFilters(parameters);
+        return TaskQueryMetrics.record("delete", filterNames(query), () -> taskRepository.deleteTasks(query), Integer::intValue);
+    }
+
+    // Sets the given attribute values (see TaskEditor.parseChanges) on every task that matches the filter parameters,
+    // with set-based statements in the database. No task is loaded into memory, only counts per device, status and severity.
+    // Returns the number of updated tasks.
+    // At least one filter is required: a bulk update of the whole table is far more likely a mistake than intended.
+    
+    protected static int patchTasks(Map<String, String> parameters, Map<String, Object> changes) throws QueryParameterException {
+        TaskQuery query = parseFilters(parameters);
+        if (!query.hasFilters()) {
+            throw new QueryParameterException(filterRequired);
+        }
+        return TaskQueryMetrics.record("patch", filterNames(query), () -> taskRepository.patchTasks(query, changes), Integer::intValue);
+    }
+
+    // Counts the tasks that match the filter parameters, grouped by the attributes listed in 'groupBy'.
+    // A single aggregate query, no tasks are loaded. See MaintenanceTaskRepositoryCustom.countTasks for the rows.
+    
+    protected static List<Map<String, Object>> countTasks(Map<String, String> parameters) throws QueryParameterException {
+        Map<String, String> filters = new HashMap<>(parameters);
+        List<String> groupBy = filters.containsKey(Q_GROUP_BY)
+            ? parseAttributes(filters.remove(Q_GROUP_BY), GROUPS, availableGroups) : List.of();
+        TaskQuery query = parseFilters(filters);
+        return TaskQueryMetrics.record("count", filterNames(query), () -> taskRepository.countTasks(query, groupBy), List::size);
+    }
+
+    // Task counts per device from TaskCounters, without a query.
+    // Accepts only 'status' and 'severity', each with a single value. A missing one counts every value.
+    
+    protected static Map<Long, Long> countPerDevice(Map<String, String> parameters) throws QueryParameterException {
         TaskStatus status = null;
         TaskSeverity severity = null;
+        for (String param : parameters.keySet()) {
+            String value = parameters.get(param);
+            switch (param) {
+                case Q_STATUS:
+                    status = parseEnum(value, TaskStatus.class, availableStatus);
+                    break;
+                case Q_SEVERITY:
+                    severity = parseEnum(value, TaskSeverity.class, availableSeverity);
+                    break;
+                default:
+                    throw new QueryParameterException(String.format(unknownParam, param, availableCounterParams));
+            }
+        }
+        return TaskCounters.perDevice(status, severity);
+    }
+
+    // Tasks changed and deleted since the 'since' token (see TaskChanges), and the token to pass next time.
+    // Without a token, or with one that this database never handed out, every task is returned, with "full" set:
+    // the client should replace what it has instead of merging.
+    
+    protected static Map<String, Object> fetchChanges(Map<String, String> parameters) throws QueryParameterException {
+        Long since = null;
+        for (String param : parameters.keySet()) {
+            if (!param.equals(Q_SINCE)) {
+                throw new QueryParameterException(String.format(unknownParam, param, availableChangeParams));
+            }
+            try {
+                since = Long.parseLong(parameters.get(param));
+            }
+            catch (NumberFormatException ex) {
+                throw new QueryParameterException(String.format(notConvertable, param, availableSince));
+            }
+            if (since < 0) {
+                throw new QueryParameterException(String.format(notConvertable, param, availableSince));
+            }
+        }
+        // The token is taken before reading, so anything that commits during the reads is returned again next time.
+        // A token below the horizon may miss deletes whose tombstones were pruned, so it gets everything too.
+        long token = TaskChanges.safeToken();
+        if (since != null && since <= TaskChanges.latest() && since >= TaskChanges.horizon()) {
+            long from = since;
+            List<MaintenanceTask> changed = TaskQueryMetrics.record("changes", Q_SINCE,
+                () -> taskRepository.findChangedTasks(from, token), List::size);
+            List<Long> deleted = taskRepository.findDeletedTaskIds(since, token);
+            // The horizon is raised before tombstones are pruned: if it passed the token during the reads, some may be missing
+            if (since >= TaskChanges.horizon()) {
+                return changes(token, false, changed, deleted);
+            }
+        }
+        List<MaintenanceTask> all = TaskQueryMetrics.record("changes", NO_FILTERS, () -> taskRepository.findAll(LISTING_ORDER), List::size);
+        return changes(token, true, all, List.of());
+    }
+
+    private static Map<String, Object> changes(long token, boolean full, List<MaintenanceTask> changed, List<Long> deleted) {
+        Map<String, Object> changes = new LinkedHashMap<>();
+        changes.put("token", String.valueOf(token));
+        changes.put("full", full);
+        changes.put("changed", changed);
+        changes.put("deleted", deleted);
+        return changes;
+    }
+
+    // Parses the filter parameters only, without running a query.
+    // Used by the export, which runs its query later on the thread that writes the response.
+    
+    protected static TaskQuery parseFilters(Map<String, String> parameters) throws QueryParameterException {
+        TaskQuery query = parseQuery(parameters);
+        if (query.isPaged() || query.getFields() != null) {
+            throw new QueryParameterException(pagingNotAllowed);
+        }
+        return query;
+    }
+
+    // Same as fetchTasks, but also accepts the 'limit' and 'cursor' parameters.
+    // If neither of them is supplied, all matching tasks are returned in a single unpaged TaskPage.
+    // The controller calls fetchFieldPage instead when 'fields' is supplied.
+    
+    protected static TaskPage<MaintenanceTask> fetchTaskPage(Map<String, String> parameters) throws QueryParameterException {
+        TaskQuery query = parseQuery(parameters);
+        if (query.matchesNothing()) {
+            // e.g. "status=!OPEN,CLOSED": no query to run, and no page to link to
+            return new TaskPage<>(List.of());
+        }
+        if (!query.isPaged()) {
+            return new TaskPage<>(TaskQueryMetrics.record("list", filterNames(query),
+                () -> taskRepository.findAll(query, LISTING_ORDER), List::size));
+        }
+        setDefaultLimit(query);
+        List<MaintenanceTask> tasks = new ArrayList<>(TaskQueryMetrics.record("page", filterNames(query),
+            () -> taskRepository.findPage(query, query.getLimit() + 1), List::size));
+        return toPage(query, tasks, TaskCursor::after, TaskCursor::before);
+    }
+
+    // Sparse listing: same as fetchTaskPage, but the rows only have the attributes listed in 'fields',
+    // and only those columns are read from the database (plus the sort key, if the listing is paged).
+    
+    protected static TaskPage<TaskFields> fetchFieldPage(Map<String, String> parameters) throws QueryParameterException {
+        TaskQuery query = parseQuery(parameters);
+        if (query.getFields() == null) {
+            throw new QueryParameterException(String.format(notConvertable, Q_FIELDS, availableFields));
+        }
+        if (query.matchesNothing()) {
+            return new TaskPage<>(List.of());
+        }
+        String filters = filterNames(query);
+        if (!query.isPaged()) {
+            return new TaskPage<>(TaskQueryMetrics.record("fields", filters, () -> taskRepository.findFields(query, -1), List::size));
+        }
+        setDefaultLimit(query);
+        List<TaskFields> rows = new ArrayList<>(TaskQueryMetrics.record("fields", filters,
+            () -> taskRepository.findFields(query, query.getLimit() + 1), List::size));
+        TaskPage<TaskFields> page = toPage(query, rows, TaskCursor::after, TaskCursor::before);
+        // The cursors are built, drop the sort key columns that weren't asked for
+        for (TaskFields row : page.getTasks()) {
+            row.keySet().retainAll(query.getFields());
+        }
+        return page;
+    }
+
+    private static TaskQuery parseQuery(Map<String, String> parameters) throws QueryParameterException {
+        // Parse the query. If no parameters were supplied at all, the query has no filters.
+        TaskQuery query = new TaskQuery();
 
         for (String param : parameters.keySet()) {
             String value = parameters.get(param);
             switch (param) {
                 
                 case Q_DEVICEID:
-                    try {
-                        deviceId = Long.parseLong(value);
-                        databaseMethod += DQP_DEVICEID; // Indicate that we found the deviceId parameter
-                    }
-                    catch (IllegalArgumentException ex) {
-                        // Bad parameter for deviceId.
-                        // No "NullPointerException" check here because in case of null
-                        // it will throw "NumberFormatException", which is a subclass of "IllegalArgumentException"
-                        throw new QueryParameterException(String.format(notConvertable, value, "Must be an integer."));
-                    }
+                    query.setDeviceId(parseDeviceIdFilter(value));
                     break;
 
                 case Q_STATUS:
-                    try { 
-                        status = TaskStatus.valueOf(value);
-                        databaseMethod += DQP_STATUS; // Indicate that we found the status parameter
-                    }
-                    catch (IllegalArgumentException | NullPointerException ex) {
-                        // Bad parameter for status. Throw exception, show which statuses are available
-                        throw new QueryParameterException(String.format(notConvertable, value, availableStatus));
-                    }
+                    query.setStatus(parseEnumFilter(value, TaskStatus.class, availableStatus));
                     break;
                 
                 case Q_SEVERITY:
+                    query.setSeverity(parseEnumFilter(value, TaskSeverity.class, availableSeverity));
+                    break;
+
+                case Q_REGISTERED_FROM:
+                    query.setRegisteredFrom(parseTime(value));
+                    break;
+
+                case Q_REGISTERED_TO:
+                    query.setRegisteredTo(parseTime(value));
+                    break;
+
+                case Q_LIMIT:
+                    int limit;
                     try {
-                        severity = TaskSeverity.valueOf(value);
-                        databaseMethod += DQP_SEVERITY; // Indicate that we found the severity parameter
+                        limit = Integer.parseInt(value);
+                    }
+                    catch (IllegalArgumentException ex) {
+                        throw new QueryParameterException(String.format(notConvertable, value, availableLimit));
                     }
-                    catch (IllegalArgumentException | NullPointerException ex) {
-                        // Bad parameter for severity.
-                        throw new QueryParameterException(String.format(notConvertable, value, availableSeverity));
+                    if (limit < 1 || limit > MAX_LIMIT) {
+                        throw new QueryParameterException(String.format(notConvertable, value, availableLimit));
                     }
+                    query.setLimit(limit);
+                    break;
+
+                case Q_CURSOR:
+                    // Throws QueryParameterException itself if the cursor can't be decoded
+                    query.setCursor(TaskCursor.decode(value));
+                    break;
+
+                case Q_FIELDS:
+                    query.setFields(parseAttributes(value, FIELDS, availableFields));
                     break;
                 
                 default:
@@ -110,49 +328,238 @@ public final class TaskFetcher {
                     throw new QueryParameterException(String.format(unknownParam, param, availableParams));
             }
         }
-        // Now we call the database query resolution function with all 3 parameters, and pass our databaseMethod integer
-        // to tell it which query it should use. Based on this, it will know which JPA repository function to call
-        // and which query parameters to pass along.
-        return queryDatabase(databaseMethod, deviceId, status, severity);
-    }
-
-    private static List<MaintenanceTask> queryDatabase(int databaseMethod, Long deviceId, TaskStatus status, TaskSeverity severity) {
-        // Query the database based on the parameters we received
-        // The databaseMethod integer has a value between 1 and 7
-        // DQP_DEVICEID = 1, DQP_STATUS = 2, DQP_SEVERITY = 4.
-        // The combination of these values determine which database query method to call
-        // from our task repository. This way we don't have to perform null checks on parameters :)
-        List<MaintenanceTask> tasks = new ArrayList<>();
-        switch (databaseMethod) {
-            case DQP_DEVICEID:
-                // 1: only device
-                tasks = taskRepository.findAllByDeviceIdOrderBySeverityAscRegistered(deviceId);
-                break;
-            case DQP_STATUS:
-                // 2: only status
-                tasks = taskRepository.findAllByStatusOrderBySeverityAscRegistered(status);
-                break;
-            case DQP_DEVICEID + DQP_STATUS:
-                // 3: device and status
-                tasks = taskRepository.findAllByDeviceIdAndStatusOrderBySeverityAscRegistered(deviceId, status);
-                break;
-            case DQP_SEVERITY:
-                // 4: only severity
-                tasks = taskRepository.findAllBySeverityOrderBySeverityAscRegistered(severity);
-                break;
-            case DQP_DEVICEID + DQP_SEVERITY:
-                // 5: device and severity
-                tasks = taskRepository.findAllByDeviceIdAndSeverityOrderBySeverityAscRegistered(deviceId, severity);
-                break;
-            case DQP_STATUS + DQP_SEVERITY:
-                // 6: status and severity
-                tasks = taskRepository.findAllByStatusAndSeverityOrderBySeverityAscRegistered(status, severity);
-                break;
-            case DQP_DEVICEID + DQP_STATUS + DQP_SEVERITY:
-                // 7: device, status, severity
-                tasks = taskRepository.findAllByDeviceIdAndStatusAndSeverityOrderBySeverityAscRegistered(deviceId, status, severity);
-                break;
-        }
-        return tasks;
+        if (query.getRegisteredFrom() != null && query.getRegisteredTo() != null
+                && !query.getRegisteredFrom().isBefore(query.getRegisteredTo())) {
+            throw new QueryParameterException(emptyWindow);
+        }
+        return query;
+    }
+
+    private static Map<String, String> pageParameters(TaskQuery query) {
+        // The query parameters of a paged listing, without the cursor. Relative times are already resolved,
+        // so "registeredFrom=PT24H" stays the same window on every page.
+        Map<String, String> parameters = new LinkedHashMap<>();
+        if (query.getDeviceId() != null) {
+            parameters.put(Q_DEVICEID, query.getDeviceId().toParameter());
+        }
+        if (query.getStatus() != null) {
+            parameters.put(Q_STATUS, query.getStatus().toParameter());
+        }
+        if (query.getSeverity() != null) {
+            parameters.put(Q_SEVERITY, query.getSeverity().toParameter());
+        }
+        if (query.getRegisteredFrom() != null) {
+            parameters.put(Q_REGISTERED_FROM, query.getRegisteredFrom().toString());
+        }
+        if (query.getRegisteredTo() != null) {
+            parameters.put(Q_REGISTERED_TO, query.getRegisteredTo().toString());
+        }
+        parameters.put(Q_LIMIT, String.valueOf(query.getLimit()));
+        if (query.getFields() != null) {
+            parameters.put(Q_FIELDS, String.join(LIST_SEPARATOR, query.getFields()));
+        }
+        return parameters;
+    }
+
+    private static String filterNames(TaskQuery query) {
+        // The supplied filters, e.g. "deviceId+status". Tags the query metrics (see TaskQueryMetrics).
+        List<String> names = new ArrayList<>();
+        if (query.getDeviceId() != null) {
+            names.add(Q_DEVICEID);
+        }
+        if (query.getStatus() != null) {
+            names.add(Q_STATUS);
+        }
+        if (query.getSeverity() != null) {
+            names.add(Q_SEVERITY);
+        }
+        if (query.getRegisteredFrom() != null) {
+            names.add(Q_REGISTERED_FROM);
+        }
+        if (query.getRegisteredTo() != null) {
+            names.add(Q_REGISTERED_TO);
+        }
+        return names.isEmpty() ? NO_FILTERS : String.join("+", names);
+    }
+
+    private static void setDefaultLimit(TaskQuery query) {
+        if (query.getLimit() == null) {
+            // Cursor without a limit
+            query.setLimit(DEFAULT_LIMIT);
+        }
+    }
+
+    private static <T> TaskPage<T> toPage(TaskQuery query, List<T> rows, Function<T, TaskCursor> after, Function<T, TaskCursor> before) {
+        // Keyset pagination. The rows were fetched with one row more than the limit
+        // to find out whether there is another page in the direction we're reading.
+        int limit = query.getLimit();
+        TaskCursor cursor = query.getCursor();
+        boolean backward = cursor != null && cursor.isBackward();
+
+        boolean hasMore = rows.size() > limit;
+        if (hasMore) {
+            rows.remove(limit);
+        }
+        if (backward) {
+            // Backward pages are read in descending order. Flip them back.
+            Collections.reverse(rows);
+        }
+
+        String nextCursor = null;
+        String prevCursor = null;
+        if (!rows.isEmpty()) {
+            T first = rows.get(0);
+            T last = rows.get(rows.size() - 1);
+            // Reading forward, there is a previous page if we arrived here through a cursor.
+            // Reading backward, there is always a next page: the one we came from.
+            boolean hasNext = backward || hasMore;
+            boolean hasPrev = backward ? hasMore : cursor != null;
+            if (hasNext) {
+                nextCursor = after.apply(last).encode();
+            }
+            if (hasPrev) {
+                prevCursor = before.apply(first).encode();
+            }
+        }
+        return new TaskPage<>(rows, nextCursor, prevCursor, pageParameters(query));
+    }
+
+    // Whether a time filter is relative to the current time ("registeredFrom=PT24H"): the same parameters
+    // select a different window a moment later, so the response can't be cached or given an ETag.
+    protected static boolean hasRelativeTime(Map<String, String> parameters) {
+        for (String param : List.of(Q_REGISTERED_FROM, Q_REGISTERED_TO)) {
+            String value = parameters.get(param);
+            if (value != null && value.startsWith("P")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Whether the listing is returned a page at a time, so its size is bounded by the limit
+    protected static boolean isPaged(Map<String, String> parameters) {
+        return parameters.containsKey(Q_LIMIT) || parameters.containsKey(Q_CURSOR);
+    }
+
+    private static LocalDateTime parseTime(String value) throws QueryParameterException {
+        // ISO-8601 date or local date-time, or a duration which is subtracted from the current time,
+        // so "registeredFrom=PT24H" means the last 24 hours.
+        if (value == null) {
+            throw new QueryParameterException(String.format(notConvertable, value, availableRegistered));
+        }
+        try {
+            if (value.startsWith("PT")) {
+                return LocalDateTime.now().minus(Duration.parse(value));
+            }
+            if (value.startsWith("P")) {
+                return LocalDateTime.now().minus(Period.parse(value));
+            }
+            if (value.length() == DATE_LENGTH) {
+                return LocalDate.parse(value).atStartOfDay();
+            }
+            return LocalDateTime.parse(value);
+        }
+        catch (DateTimeParseException ex) {
+            throw new QueryParameterException(String.format(notConvertable, value, availableRegistered));
+        }
+    }
+
+    private static String[] splitFilter(String value, String available) throws QueryParameterException {
+        // Splits a filter value into its comma separated items, without the negation.
+        // Empty items are rejected, so "", "!" and "1,,2" are all malformed.
+        if (value == null) {
+            throw new QueryParameterException(String.format(notConvertable, value, available));
+        }
+        String list = value.startsWith(NEGATION) ? value.substring(NEGATION.length()) : value;
+        String[] items = list.split(LIST_SEPARATOR, -1);
+        if (items.length > MAX_FILTER_VALUES) {
+            throw new QueryParameterException(String.format(notConvertable, value, filterSyntax));
+        }
+        for (String item : items) {
+            if (item.isEmpty()) {
+                throw new QueryParameterException(String.format(notConvertable, value, available));
+            }
+        }
+        return items;
+    }
+
+    private static List<String> parseAttributes(String value, List<String> available, String availableMessage) throws QueryParameterException {
+        // Any subset of the available attributes, in any order. Returned in the order of available, without duplicates.
+        if (value == null || value.startsWith(NEGATION)) {
+            throw new QueryParameterException(String.format(notConvertable, value, availableMessage));
+        }
+        List<String> requested = Arrays.asList(splitFilter(value, availableMessage));
+        for (String attribute : requested) {
+            if (!available.contains(attribute)) {
+                throw new QueryParameterException(String.format(notConvertable, value, availableMessage));
+            }
+        }
+        return available.stream().filter(requested::contains).collect(Collectors.toList());
+    }
+
+    private static TaskFilter<Long> parseDeviceIdFilter(String value) throws QueryParameterException {
+        String available = "Must be a list of integers or integer ranges. " + filterSyntax;
+        TaskFilter<Long> filter = new TaskFilter<>();
+        try {
+            for (String item : splitFilter(value, available)) {
+                int separator = item.indexOf(RANGE_SEPARATOR);
+                if (separator == -1) {
+                    filter.addValue(Long.parseLong(item));
+                    continue;
+                }
+                // Range. Either end may be left out, but not both.
+                String from = item.substring(0, separator);
+                String to = item.substring(separator + RANGE_SEPARATOR.length());
+                Long fromId = from.isEmpty() ? null : Long.parseLong(from);
+                Long toId = to.isEmpty() ? null : Long.parseLong(to);
+                if ((fromId == null && toId == null) || (fromId != null && toId != null && fromId > toId)) {
+                    throw new QueryParameterException(String.format(notConvertable, value, available));
+                }
+                filter.addRange(fromId, toId);
+            }
+        }
+        catch (NumberFormatException ex) {
+            throw new QueryParameterException(String.format(notConvertable, value, available));
+        }
+        if (value.startsWith(NEGATION)) {
+            filter.negate();
+        }
+        return filter;
+    }
+
+    private static <E extends Enum<E>> E parseEnum(String value, Class<E> type, String available) throws QueryParameterException {
+        // A single constant, no lists or negation
+        try {
+            return Enum.valueOf(type, value);
+        }
+        catch (IllegalArgumentException | NullPointerException ex) {
+            throw new QueryParameterException(String.format(notConvertable, value, available));
+        }
+    }
+
+    private static <E extends Enum<E>> TaskFilter<E> parseEnumFilter(String value, Class<E> type, String available) throws QueryParameterException {
+        // Enum filters are turned into a plain IN-list of the accepted constants, with negation already applied:
+        // "!CLOSED" becomes "in (OPEN)", which the indexes can seek on, where "<> CLOSED" would need a scan.
+        EnumSet<E> accepted = EnumSet.noneOf(type);
+        for (String item : splitFilter(value, available)) {
+            try {
+                accepted.add(Enum.valueOf(type, item));
+            }
+            catch (IllegalArgumentException ex) {
+                throw new QueryParameterException(String.format(notConvertable, value, available));
+            }
+        }
+        if (value.startsWith(NEGATION)) {
+            accepted = EnumSet.complementOf(accepted);
+        }
+        if (accepted.size() == type.getEnumConstants().length) {
+            // Every value is accepted, so this is no filter at all
+            return null;
+        }
+        TaskFilter<E> filter = new TaskFilter<>();
+        for (E constant : accepted) {
+            filter.addValue(constant);
+        }
+        return filter;
     }
 }
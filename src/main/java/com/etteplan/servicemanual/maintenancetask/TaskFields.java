@@ -0,0 +1,20 @@
+package com.etteplan.servicemanual.maintenancetask;
+
+import org.springframework.hateoas.server.core.Relation;
+
+import java.util.LinkedHashMap;
+
+/* One row of a sparse task listing ("?fields=id,status"): the requested attributes of a task by name.
+ * Read as plain values with a tuple query (see MaintenanceTaskRepositoryImpl.findFields), so no entity is loaded,
+ * and serialized as a map, so only the attributes that are present are written.
+ * Embedded under the same name as whole tasks, so clients read both listings the same way. */
+
+@Relation(collectionRelation = "maintenanceTaskList")
+final class TaskFields extends LinkedHashMap<String, Object> {
+
+    private static final long serialVersionUID = 1L;
+
+    Long getId() {
+        return (Long) get(TaskQuery.ATTR_ID);
+    }
+}
@@ -0,0 +1,159 @@
+package com.etteplan.servicemanual.maintenancetask;
+
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Predicate;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/* The condition a single task column has to satisfy, parsed from one query parameter.
+ * A filter matches if the column equals any of its values or falls into any of its ranges.
+ * A negated filter matches everything else.
+ * Examples of deviceId filters: "5" (= 5), "1,2,3" (in 1, 2, 3), "10..20" (between 10 and 20),
+ * "10.." (>= 10), "..20" (<= 20), "!5" (<> 5), "!1,2,10..20". */
+
+final class TaskFilter<T extends Comparable<? super T>> {
+
+    private final Set<T> values = new LinkedHashSet<>();
+    private final List<Range<T>> ranges = new ArrayList<>();
+    private boolean negated = false;
+
+    private static final class Range<T> {
+        // Either end can be null, but not both
+        final T from;
+        final T to;
+
+        Range(T from, T to) {
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    static <T extends Comparable<? super T>> TaskFilter<T> equalTo(T value) {
+        TaskFilter<T> filter = new TaskFilter<>();
+        filter.addValue(value);
+        return filter;
+    }
+
+    void addValue(T value) {
+        this.values.add(value);
+    }
+
+    void addRange(T from, T to) {
+        this.ranges.add(new Range<>(from, to));
+    }
+
+    void negate() {
+        this.negated = !this.negated;
+    }
+
+    // True for a filter without values or ranges that isn't negated, e.g. "status=!OPEN,CLOSED"
+    boolean matchesNothing() {
+        return !this.negated && this.values.isEmpty() && this.ranges.isEmpty();
+    }
+
+    Predicate toPredicate(CriteriaBuilder cb, Expression<T> column) {
+        List<Predicate> alternatives = new ArrayList<>();
+        if (this.values.size() == 1) {
+            alternatives.add(cb.equal(column, this.values.iterator().next()));
+        }
+        else if (this.values.size() > 1) {
+            alternatives.add(column.in(padded(this.values)));
+        }
+        for (Range<T> range : this.ranges) {
+            if (range.from != null && range.to != null) {
+                alternatives.add(cb.between(column, range.from, range.to));
+            }
+            else if (range.from != null) {
+                alternatives.add(cb.greaterThanOrEqualTo(column, range.from));
+            }
+            else {
+                alternatives.add(cb.lessThanOrEqualTo(column, range.to));
+            }
+        }
+
+        Predicate predicate;
+        if (alternatives.isEmpty()) {
+            // Nothing can match, e.g. every status was negated away
+            predicate = cb.disjunction();
+        }
+        else if (alternatives.size() == 1) {
+            predicate = alternatives.get(0);
+        }
+        else {
+            predicate = cb.or(alternatives.toArray(new Predicate[0]));
+        }
+        return this.negated ? cb.not(predicate) : predicate;
+    }
+
+    // The same condition in SQL, for reads that don't go through JPA (see ReactiveTaskReader).
+    // Values become named parameters added to 'bindings', converted by 'toColumn' to what the column stores.
+    String toSql(String column, Function<T, Object> toColumn, Map<String, Object> bindings) {
+        List<String> alternatives = new ArrayList<>();
+        if (!this.values.isEmpty()) {
+            List<Object> stored = new ArrayList<>();
+            for (T value : padded(this.values)) {
+                stored.add(toColumn.apply(value));
+            }
+            alternatives.add(String.format("%s in (%s)", column, bind(bindings, stored)));
+        }
+        for (Range<T> range : this.ranges) {
+            if (range.from != null && range.to != null) {
+                alternatives.add(String.format("%s between %s and %s", column,
+                    bind(bindings, toColumn.apply(range.from)), bind(bindings, toColumn.apply(range.to))));
+            }
+            else if (range.from != null) {
+                alternatives.add(String.format("%s >= %s", column, bind(bindings, toColumn.apply(range.from))));
+            }
+            else {
+                alternatives.add(String.format("%s <= %s", column, bind(bindings, toColumn.apply(range.to))));
+            }
+        }
+        // Nothing can match without alternatives, e.g. every status was negated away
+        String condition = alternatives.isEmpty() ? "1 = 0" : "(" + String.join(" or ", alternatives) + ")";
+        return this.negated ? "not " + condition : condition;
+    }
+
+    // The same condition as a query parameter value, which TaskFetcher parses back into an equal filter.
+    // Enum filters come out as the constants they accept, with any negation already applied.
+    // A filter that matches nothing has no such form; TaskFetcher answers it with an empty page without links.
+    String toParameter() {
+        List<String> items = new ArrayList<>();
+        for (T value : this.values) {
+            items.add(parameterValue(value));
+        }
+        for (Range<T> range : this.ranges) {
+            items.add((range.from == null ? "" : parameterValue(range.from)) + ".." + (range.to == null ? "" : parameterValue(range.to)));
+        }
+        return (this.negated ? "!" : "") + String.join(",", items);
+    }
+
+    private static String parameterValue(Object value) {
+        return value instanceof Enum ? ((Enum<?>) value).name() : value.toString();
+    }
+
+    static String bind(Map<String, Object> bindings, Object value) {
+        // Adds a named parameter and returns its placeholder. A collection expands to a list of parameters.
+        String name = "p" + bindings.size();
+        bindings.put(name, value);
+        return ":" + name;
+    }
+
+    private static <T> List<T> padded(Set<T> values) {
+        // Every value becomes its own bind parameter, so each IN-list length produces a different statement.
+        // Repeating the last value up to the next power of two keeps the number of distinct statements
+        // (and query plans) per filter shape small. Duplicates in an IN-list don't change the result.
+        List<T> list = new ArrayList<>(values);
+        int size = Integer.highestOneBit(list.size() - 1) << 1;
+        T last = list.get(list.size() - 1);
+        while (list.size() < size) {
+            list.add(last);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,156 @@
+package com.etteplan.servicemanual.maintenancetask;
+
+import com.etteplan.servicemanual.factorydevice.FactoryDeviceIndex;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/* Creates many tasks from a single request body.
+ * The body is either a JSON array of tasks, or newline-delimited JSON with one task per line.
+ * Each task is validated the same way as in the single task POST endpoint, but a bad task
+ * only fails itself: the rest of the batch is still created.
+ * Device ids are checked against FactoryDeviceIndex, without a query, and the tasks are inserted
+ * in a single transaction, using JDBC batching (see hibernate.jdbc.batch_size in application.properties). */
+
+@Component
+class TaskImporter {
+
+    // The most tasks we accept in one request
+    protected static final int MAX_BATCH_SIZE = 10000;
+
+    // Flush and clear the persistence context every FLUSH_SIZE tasks.
+    // Same as hibernate.jdbc.batch_size, so that every flush is exactly one JDBC batch.
+    private static final int FLUSH_SIZE = 50;
+
+    private static final String ERR_MALFORMED = "Error in request body: expected a JSON array of tasks, or one JSON task per line.";
+    private static final String ERR_EMPTY = "Error: empty request body";
+    private static final String ERR_TOO_MANY = "Error in request body: at most %d tasks can be created at once.";
+    private static final String ERR_INVALID = "Error in request body: %s %s";
+    private static final String ERR_DEVICE = "Could not find factory device %d";
+
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+    private final TransactionTemplate transactionTemplate;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    public TaskImporter(ObjectMapper objectMapper, Validator validator, PlatformTransactionManager transactionManager) {
+        this.objectMapper = objectMapper;
+        this.validator = validator;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    TaskBatchResult importTasks(InputStream body) throws RequestBodyException {
+        TaskBatchResult result = new TaskBatchResult();
+        // The tasks that passed validation, and their result items
+        List<MaintenanceTask> tasks = new ArrayList<>();
+        List<TaskBatchResult.Item> items = new ArrayList<>();
+
+        // readValues() iterates the elements of a root level array,
+        // or a sequence of root level values, which is what NDJSON is.
+        try (MappingIterator<JsonNode> nodes = objectMapper.readerFor(JsonNode.class).readValues(body)) {
+            int index = 0;
+            while (nodes.hasNextValue()) {
+                if (index == MAX_BATCH_SIZE) {
+                    throw new RequestBodyException(String.format(ERR_TOO_MANY, MAX_BATCH_SIZE));
+                }
+                JsonNode node = nodes.nextValue();
+                TaskBatchResult.Item item = result.add(index++);
+                MaintenanceTask task = readTask(node, item);
+                if (task != null) {
+                    tasks.add(task);
+                    items.add(item);
+                }
+            }
+        }
+        catch (IOException ex) {
+            // Not JSON at all, or broken in the middle. We can't tell where tasks begin and end, so nothing is created.
+            throw new RequestBodyException(ERR_MALFORMED);
+        }
+        if (result.getResults().isEmpty()) {
+            throw new RequestBodyException(ERR_EMPTY);
+        }
+
+        // Check the devices
+        List<MaintenanceTask> insertTasks = new ArrayList<>();
+        List<TaskBatchResult.Item> insertItems = new ArrayList<>();
+        for (int i = 0; i < tasks.size(); i++) {
+            MaintenanceTask task = tasks.get(i);
+            if (FactoryDeviceIndex.contains(task.getDeviceId())) {
+                insertTasks.add(task);
+                insertItems.add(items.get(i));
+            }
+            else {
+                items.get(i).failed(404, String.format(ERR_DEVICE, task.getDeviceId()));
+            }
+        }
+
+        insert(insertTasks);
+        for (int i = 0; i < insertTasks.size(); i++) {
+            insertItems.get(i).created(insertTasks.get(i).getId());
+        }
+        result.count();
+        return result;
+    }
+
+    private MaintenanceTask readTask(JsonNode node, TaskBatchResult.Item item) {
+        // Converts and validates a single task. Returns null and marks the item as failed if the task is no good.
+        MaintenanceTask parsed;
+        try {
+            parsed = objectMapper.treeToValue(node, MaintenanceTask.class);
+        }
+        catch (JsonProcessingException ex) {
+            // Unknown property, or a value that can't be converted
+            item.failed(400, "Error in request body: " + ex.getOriginalMessage());
+            return null;
+        }
+        if (parsed == null) {
+            item.failed(400, ERR_EMPTY);
+            return null;
+        }
+        Set<ConstraintViolation<MaintenanceTask>> violations = validator.validate(parsed);
+        if (!violations.isEmpty()) {
+            ConstraintViolation<MaintenanceTask> violation = violations.iterator().next();
+            item.failed(400, String.format(ERR_INVALID, violation.getPropertyPath(), violation.getMessage()));
+            return null;
+        }
+        // Copy into a new task, so that an "id" in the body is discarded like in the single task endpoint.
+        // Escape HTML in the description to prevent potential XSS attacks
+        String escapedDesc = parsed.getDescription().replaceAll("<", "&lt;").replaceAll(">", "&gt;");
+        return new MaintenanceTask(parsed.getDeviceId(), parsed.getSeverity(), parsed.getStatus(), escapedDesc, parsed.getRegistered());
+    }
+
+    private void insert(List<MaintenanceTask> tasks) {
+        if (tasks.isEmpty()) {
+            return;
+        }
+        transactionTemplate.executeWithoutResult(status -> {
+            for (int i = 0; i < tasks.size(); i++) {
+                entityManager.persist(tasks.get(i));
+                if ((i + 1) % FLUSH_SIZE == 0) {
+                    // Send this batch of inserts and forget the entities, so the persistence context stays small
+                    entityManager.flush();
+                    entityManager.clear();
+                }
+            }
+        });
+    }
+}
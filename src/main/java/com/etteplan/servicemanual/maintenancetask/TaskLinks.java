@@ -0,0 +1,50 @@
+package com.etteplan.servicemanual.maintenancetask;
+
+import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.*;
+
+import org.springframework.hateoas.Link;
+import org.springframework.hateoas.LinkRelation;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.util.Collections;
+
+/* Links for task models, built with plain string concatenation.
+ * linkTo(methodOn(...)) records the call on a proxy and builds the URI from the controller mapping and
+ * the current request every time it's called, which on a listing of thousands of tasks costs more than
+ * serializing them. Here that happens once per request: the href of /api/tasks is resolved the usual way
+ * and kept as a request attribute, and a task's href is that href plus "/" and the id, which is how
+ * MaintenanceTaskController maps getTaskById. */
+
+@Component
+class TaskLinks {
+
+    static final LinkRelation TASKS = LinkRelation.of("tasks");
+
+    private static final String ATTRIBUTE = TaskLinks.class.getName() + ".tasks";
+
+    // Link to /api/tasks, without query parameters
+    Link tasks() {
+        RequestAttributes request = RequestContextHolder.getRequestAttributes();
+        if (request == null) {
+            // Not in a request, nothing to keep it in
+            return resolveTasks();
+        }
+        Link tasks = (Link) request.getAttribute(ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (tasks == null) {
+            tasks = resolveTasks();
+            request.setAttribute(ATTRIBUTE, tasks, RequestAttributes.SCOPE_REQUEST);
+        }
+        return tasks;
+    }
+
+    // Self link of the task with the given id
+    Link task(long taskId) {
+        return Link.of(tasks().getHref() + "/" + taskId);
+    }
+
+    private static Link resolveTasks() {
+        return linkTo(methodOn(MaintenanceTaskController.class).all(Collections.emptyMap(), null)).withRel(TASKS);
+    }
+}
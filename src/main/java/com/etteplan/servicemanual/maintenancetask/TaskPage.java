@@ -0,0 +1,45 @@
+package com.etteplan.servicemanual.maintenancetask;
+
+import java.util.List;
+import java.util.Map;
+
+/* One page of tasks returned by TaskFetcher.fetchTaskPage (whole tasks) or fetchFieldPage (TaskFields rows).
+ * nextCursor and prevCursor are encoded TaskCursor values, or null if there is no such page.
+ * parameters are the page's query parameters without the cursor, normalized from the parsed query,
+ * so the links to the other pages keep the filters and the limit however the request spelled them.
+ * An unpaged result simply has no cursors. */
+
+final class TaskPage<T> {
+
+    private final List<T> tasks;
+    private final String nextCursor;
+    private final String prevCursor;
+    private final Map<String, String> parameters;
+
+    TaskPage(List<T> tasks) {
+        this(tasks, null, null, Map.of());
+    }
+
+    TaskPage(List<T> tasks, String nextCursor, String prevCursor, Map<String, String> parameters) {
+        this.tasks = tasks;
+        this.nextCursor = nextCursor;
+        this.prevCursor = prevCursor;
+        this.parameters = parameters;
+    }
+
+    List<T> getTasks() {
+        return this.tasks;
+    }
+
+    String getNextCursor() {
+        return this.nextCursor;
+    }
+
+    String getPrevCursor() {
+        return this.prevCursor;
+    }
+
+    Map<String, String> getParameters() {
+        return this.parameters;
+    }
+}
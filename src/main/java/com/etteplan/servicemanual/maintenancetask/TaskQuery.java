@@ -0,0 +1,192 @@
+package com.etteplan.servicemanual.maintenancetask;
+
+import org.springframework.data.jpa.domain.Specification;
+
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/* The parsed form of the query parameters accepted by TaskFetcher.
+ * Filters that were not supplied are null.
+ * As a Specification, the query is the where clause of every task listing, export and bulk delete:
+ * each supplied filter adds one condition, and unsupplied filters don't appear in the SQL at all. */
+
+final class TaskQuery implements Specification<MaintenanceTask> {
+
+    // MaintenanceTask attribute names used in criteria queries
+    static final String ATTR_ID = "id";
+    static final String ATTR_DEVICEID = "deviceId";
+    static final String ATTR_STATUS = "status";
+    static final String ATTR_SEVERITY = "severity";
+    static final String ATTR_DESCRIPTION = "description";
+    static final String ATTR_REGISTERED = "registered";
+    static final String ATTR_CHANGESEQ = "changeSeq";
+
+    private TaskFilter<Long> deviceId;
+    private TaskFilter<TaskStatus> status;
+    private TaskFilter<TaskSeverity> severity;
+    // Registration time window: registeredFrom <= registered < registeredTo
+    private LocalDateTime registeredFrom;
+    private LocalDateTime registeredTo;
+
+    // Pagination: both are null when the client didn't ask for a page
+    private Integer limit;
+    private TaskCursor cursor;
+
+    // Sparse fieldset: the attributes to return, in MaintenanceTask's order, or null for whole tasks
+    private List<String> fields;
+
+    TaskFilter<Long> getDeviceId() {
+        return this.deviceId;
+    }
+
+    void setDeviceId(TaskFilter<Long> deviceId) {
+        this.deviceId = deviceId;
+    }
+
+    TaskFilter<TaskStatus> getStatus() {
+        return this.status;
+    }
+
+    void setStatus(TaskFilter<TaskStatus> status) {
+        this.status = status;
+    }
+
+    TaskFilter<TaskSeverity> getSeverity() {
+        return this.severity;
+    }
+
+    void setSeverity(TaskFilter<TaskSeverity> severity) {
+        this.severity = severity;
+    }
+
+    LocalDateTime getRegisteredFrom() {
+        return this.registeredFrom;
+    }
+
+    void setRegisteredFrom(LocalDateTime registeredFrom) {
+        this.registeredFrom = registeredFrom;
+    }
+
+    LocalDateTime getRegisteredTo() {
+        return this.registeredTo;
+    }
+
+    void setRegisteredTo(LocalDateTime registeredTo) {
+        this.registeredTo = registeredTo;
+    }
+
+    Integer getLimit() {
+        return this.limit;
+    }
+
+    void setLimit(Integer limit) {
+        this.limit = limit;
+    }
+
+    TaskCursor getCursor() {
+        return this.cursor;
+    }
+
+    void setCursor(TaskCursor cursor) {
+        this.cursor = cursor;
+    }
+
+    List<String> getFields() {
+        return this.fields;
+    }
+
+    void setFields(List<String> fields) {
+        this.fields = fields;
+    }
+
+    // The attributes a sparse listing selects: the requested fields, plus the sort key of the listing
+    // when it's paged, because the cursors are built from it
+    List<String> selectedAttributes() {
+        List<String> selected = new ArrayList<>(this.fields);
+        if (isPaged()) {
+            for (String key : List.of(ATTR_SEVERITY, ATTR_REGISTERED, ATTR_ID)) {
+                if (!selected.contains(key)) {
+                    selected.add(key);
+                }
+            }
+        }
+        return selected;
+    }
+
+    boolean hasFilters() {
+        return this.deviceId != null || this.status != null || this.severity != null
+            || this.registeredFrom != null || this.registeredTo != null;
+    }
+
+    boolean isPaged() {
+        return this.limit != null || this.cursor != null;
+    }
+
+    // Whether some filter rules out every task, so there is nothing to read
+    boolean matchesNothing() {
+        return (this.deviceId != null && this.deviceId.matchesNothing())
+            || (this.status != null && this.status.matchesNothing())
+            || (this.severity != null && this.severity.matchesNothing());
+    }
+
+    // One predicate per supplied filter, to be combined with 'and'.
+    // Also used for criteria deletes, which is why this doesn't take a CriteriaQuery.
+    List<Predicate> filterPredicates(Root<MaintenanceTask> task, CriteriaBuilder cb) {
+        List<Predicate> predicates = new ArrayList<>();
+        if (this.deviceId != null) {
+            predicates.add(this.deviceId.toPredicate(cb, task.get(ATTR_DEVICEID)));
+        }
+        if (this.status != null) {
+            predicates.add(this.status.toPredicate(cb, task.get(ATTR_STATUS)));
+        }
+        if (this.severity != null) {
+            predicates.add(this.severity.toPredicate(cb, task.get(ATTR_SEVERITY)));
+        }
+        if (this.registeredFrom != null) {
+            predicates.add(cb.greaterThanOrEqualTo(task.get(ATTR_REGISTERED), this.registeredFrom));
+        }
+        if (this.registeredTo != null) {
+            predicates.add(cb.lessThan(task.get(ATTR_REGISTERED), this.registeredTo));
+        }
+        return predicates;
+    }
+
+    // The filters as an SQL where clause (empty without filters), for reads that don't go through JPA (see ReactiveTaskReader).
+    // Values are compared as the entity mapping stores them: status by ordinal, severity by rank.
+    String sqlWhereClause(Map<String, Object> bindings) {
+        List<String> conditions = new ArrayList<>();
+        if (this.deviceId != null) {
+            conditions.add(this.deviceId.toSql("device_id", id -> id, bindings));
+        }
+        if (this.status != null) {
+            conditions.add(this.status.toSql("status", TaskStatus::ordinal, bindings));
+        }
+        if (this.severity != null) {
+            conditions.add(this.severity.toSql("severity", TaskSeverity::getRank, bindings));
+        }
+        if (this.registeredFrom != null) {
+            conditions.add("registered >= " + TaskFilter.bind(bindings, this.registeredFrom));
+        }
+        if (this.registeredTo != null) {
+            conditions.add("registered < " + TaskFilter.bind(bindings, this.registeredTo));
+        }
+        return conditions.isEmpty() ? "" : " where " + String.join(" and ", conditions);
+    }
+
+    @Override
+    public Predicate toPredicate(Root<MaintenanceTask> task, CriteriaQuery<?> criteriaQuery, CriteriaBuilder cb) {
+        List<Predicate> predicates = filterPredicates(task, cb);
+        if (predicates.isEmpty()) {
+            // No where clause at all
+            return null;
+        }
+        return cb.and(predicates.toArray(new Predicate[0]));
+    }
+}
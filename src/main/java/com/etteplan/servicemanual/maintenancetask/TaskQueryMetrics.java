@@ -0,0 +1,73 @@
+package com.etteplan.servicemanual.maintenancetask;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+/* Metrics of the queries TaskFetcher runs: how long they take and how many rows they return,
+ * per operation (list, page, fields, count, delete, patch, changes) and combination of filters ("deviceId+status").
+ * Only which filters were supplied is a tag, never their values, so the number of series stays small.
+ * The meters are registered in Micrometer's global registry, which Spring Boot adds its registries to,
+ * so they are scraped from /actuator/prometheus with everything else. Without Spring, e.g. in the
+ * benchmarks, the global registry has no registries and recording does next to nothing.
+ * Failed queries aren't recorded here. Repository calls, failed or not, are in spring.data.repository.invocations. */
+
+final class TaskQueryMetrics {
+
+    static final String QUERY_TIMER = "servicemanual.tasks.query";
+    static final String RESULT_SIZE = "servicemanual.tasks.results";
+    static final String TAG_OPERATION = "operation";
+    static final String TAG_FILTERS = "filters";
+
+    // Buckets of the result size histogram. Micrometer only takes positive ones, the first bucket counts the empty results.
+    private static final double[] RESULT_BUCKETS = { 1, 10, 50, 100, 1000, 10000, 100000, 1000000 };
+
+    private static final class Meters {
+        final Timer timer;
+        final DistributionSummary results;
+
+        Meters(Timer timer, DistributionSummary results) {
+            this.timer = timer;
+            this.results = results;
+        }
+    }
+
+    // Registered on first use of each operation and filter combination, by "operation filters"
+    private static final Map<String, Meters> meters = new ConcurrentHashMap<>();
+
+    // Private constructor because we want a static class
+    private TaskQueryMetrics() {}
+
+    // Runs the query and records its time and result size.
+    // The meters are looked up before the query runs: a write that has committed never fails on its metrics.
+    static <T> T record(String operation, String filters, Supplier<T> query, ToIntFunction<T> size) {
+        Meters queryMeters = meters.computeIfAbsent(operation + " " + filters, key -> register(operation, filters));
+        long start = System.nanoTime();
+        T result = query.get();
+        queryMeters.timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        queryMeters.results.record(size.applyAsInt(result));
+        return result;
+    }
+
+    private static Meters register(String operation, String filters) {
+        Tags tags = Tags.of(TAG_OPERATION, operation, TAG_FILTERS, filters);
+        Timer timer = Timer.builder(QUERY_TIMER)
+            .description("Time of the task queries run by TaskFetcher")
+            .tags(tags)
+            .register(Metrics.globalRegistry);
+        DistributionSummary results = DistributionSummary.builder(RESULT_SIZE)
+            .description("Rows returned, or counted, deleted or updated, by the task queries run by TaskFetcher")
+            .baseUnit("rows")
+            .serviceLevelObjectives(RESULT_BUCKETS)
+            .tags(tags)
+            .register(Metrics.globalRegistry);
+        return new Meters(timer, results);
+    }
+}
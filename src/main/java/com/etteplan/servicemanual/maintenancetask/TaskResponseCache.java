@@ -0,0 +1,119 @@
+package com.etteplan.servicemanual.maintenancetask;
+
+import com.etteplan.servicemanual.DataVersion;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.hateoas.MediaTypes;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/* Cache of encoded GET /api/tasks pages.
+ * Only pages are cached: their size is bounded by the limit. Unpaged listings, and listings with a time window
+ * relative to now, are written by Spring MVC as usual (see MaintenanceTaskController.all).
+ * The key is the request's base URL (the links in the response are absolute) plus its query parameters
+ * in sorted order, so "?severity=CRITICAL&status=OPEN" and "?status=OPEN&severity=CRITICAL" share an entry.
+ * The value is the HAL JSON body, exactly as it was written the first time, which the controller
+ * sends again as raw bytes: a hit does no query, builds no models and serializes nothing.
+ * Each entry remembers the DataVersion.TASKS version it was built under, and is only used while
+ * that is still the current version, so any committed task write invalidates all entries at once. */
+
+@Component
+class TaskResponseCache {
+
+    // Total size of the cached bodies
+    private static final long MAX_BYTES = 32 * 1024 * 1024;
+
+    private static final class Entry {
+        final long version;
+        final byte[] body;
+
+        Entry(long version, byte[] body) {
+            this.version = version;
+            this.body = body;
+        }
+    }
+
+    private final Cache<String, Entry> cache = Caffeine.newBuilder()
+        .maximumWeight(MAX_BYTES)
+        .weigher((String key, Entry entry) -> key.length() + entry.body.length)
+        .build();
+
+    // Resolved on first use: the handler adapter is created after the controllers
+    private final ObjectProvider<RequestMappingHandlerAdapter> handlerAdapter;
+    private HttpMessageConverter<Object> halConverter;
+
+    TaskResponseCache(ObjectProvider<RequestMappingHandlerAdapter> handlerAdapter) {
+        this.handlerAdapter = handlerAdapter;
+    }
+
+    String key(Map<String, String> queryParameters) {
+        String base = ServletUriComponentsBuilder.fromCurrentRequestUri().replaceQuery(null).toUriString();
+        return base + "?" + new TreeMap<>(queryParameters);
+    }
+
+    // The cached body, if it was built under the given version
+    byte[] get(String key, long version) {
+        Entry entry = cache.getIfPresent(key);
+        return entry != null && entry.version == version ? entry.body : null;
+    }
+
+    void put(String key, long version, byte[] body) {
+        cache.put(key, new Entry(version, body));
+    }
+
+    // Writes the model the same way Spring MVC would for an application/hal+json response
+    byte[] render(Object model) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        HttpOutputMessage message = new HttpOutputMessage() {
+            private final HttpHeaders headers = new HttpHeaders();
+
+            @Override
+            public OutputStream getBody() {
+                return body;
+            }
+
+            @Override
+            public HttpHeaders getHeaders() {
+                return headers;
+            }
+        };
+        try {
+            halConverter(model.getClass()).write(model, MediaTypes.HAL_JSON, message);
+        }
+        catch (IOException ex) {
+            // Writing to memory doesn't fail
+            throw new UncheckedIOException(ex);
+        }
+        return body.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized HttpMessageConverter<Object> halConverter(Class<?> modelClass) {
+        if (halConverter == null) {
+            for (HttpMessageConverter<?> converter : handlerAdapter.getObject().getMessageConverters()) {
+                if (converter.canWrite(modelClass, MediaTypes.HAL_JSON)) {
+                    halConverter = (HttpMessageConverter<Object>) converter;
+                    break;
+                }
+            }
+            if (halConverter == null) {
+                throw new IllegalStateException("No HAL JSON message converter");
+            }
+        }
+        return halConverter;
+    }
+}
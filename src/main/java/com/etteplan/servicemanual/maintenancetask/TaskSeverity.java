@@ -1,3 +1,28 @@
 package com.etteplan.servicemanual.maintenancetask;
 
-public enum TaskSeverity { UNIMPORTANT, IMPORTANT, CRITICAL };
+/* The rank is what gets stored in the database (see TaskSeverityConverter).
+ * Lower ranks are more urgent, so sorting by severity ascending lists the critical tasks first.
+ * The ranks are persisted: don't change them without migrating the stored values. */
+
+public enum TaskSeverity {
+    UNIMPORTANT(3), IMPORTANT(2), CRITICAL(1);
+
+    private final int rank;
+
+    TaskSeverity(int rank) {
+        this.rank = rank;
+    }
+
+    public int getRank() {
+        return this.rank;
+    }
+
+    public static TaskSeverity fromRank(int rank) {
+        for (TaskSeverity severity : values()) {
+            if (severity.rank == rank) {
+                return severity;
+            }
+        }
+        throw new IllegalArgumentException("Unknown severity rank " + rank);
+    }
+};
@@ -0,0 +1,21 @@
+package com.etteplan.servicemanual.maintenancetask;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+
+// Stores a TaskSeverity as its rank in a TINYINT column,
+// so that sorting and indexing on severity compares single bytes instead of strings.
+
+@Converter
+public class TaskSeverityConverter implements AttributeConverter<TaskSeverity, Byte> {
+
+    @Override
+    public Byte convertToDatabaseColumn(TaskSeverity severity) {
+        return severity == null ? null : (byte) severity.getRank();
+    }
+
+    @Override
+    public TaskSeverity convertToEntityAttribute(Byte rank) {
+        return rank == null ? null : TaskSeverity.fromRank(rank);
+    }
+}
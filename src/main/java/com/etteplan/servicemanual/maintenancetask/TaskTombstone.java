@@ -0,0 +1,55 @@
+package com.etteplan.servicemanual.maintenancetask;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.validation.constraints.NotNull;
+
+import java.time.LocalDateTime;
+
+/* Marks a deleted task, so that GET /api/tasks/changes can tell clients which tasks to drop.
+ * Written in the same transaction as the delete (see TaskChanges), with the change sequence number of that transaction.
+ * Task ids are never reused, so the task id is the key.
+ * Tombstones are kept for servicemanual.changes.tombstone-retention after the delete, see TombstonePruner. */
+
+@Entity
+@Table(indexes = {
+    // Read as a range: ... where changeSeq > <token>
+    @Index(name = "idx_tombstone_change", columnList = "changeSeq"),
+    // Read as a range when pruning: ... where deleted < <cutoff>
+    @Index(name = "idx_tombstone_deleted", columnList = "deleted")
+})
+class TaskTombstone {
+
+    @Id
+    private Long taskId;
+
+    @NotNull
+    private Long changeSeq;
+
+    // When the task was deleted. Null for tombstones written before the column existed, which count as expired.
+    private LocalDateTime deleted;
+
+    protected TaskTombstone() {
+        // Default constructor for JPA
+    }
+
+    TaskTombstone(Long taskId, Long changeSeq) {
+        this.taskId = taskId;
+        this.changeSeq = changeSeq;
+        this.deleted = LocalDateTime.now();
+    }
+
+    Long getTaskId() {
+        return this.taskId;
+    }
+
+    Long getChangeSeq() {
+        return this.changeSeq;
+    }
+
+    LocalDateTime getDeleted() {
+        return this.deleted;
+    }
+}
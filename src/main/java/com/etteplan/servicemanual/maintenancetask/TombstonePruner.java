@@ -0,0 +1,42 @@
+package com.etteplan.servicemanual.maintenancetask;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+/* Deletes the tombstones of GET /api/tasks/changes once they are older than servicemanual.changes.tombstone-retention,
+ * every servicemanual.changes.prune-interval. Without it the tombstone table grows with every delete, forever.
+ * The newest expired tombstones are kept, the older ones are deleted, and TaskChanges' horizon is raised to just
+ * below the kept ones first. A client whose token is below the horizon gets a full response: it hasn't synced
+ * for longer than the retention, and the deletes since its token can't be listed any more. */
+
+@Component
+class TombstonePruner {
+
+    private final MaintenanceTaskRepository taskRepository;
+    private final Duration retention;
+
+    TombstonePruner(MaintenanceTaskRepository taskRepository,
+            @Value("${servicemanual.changes.tombstone-retention}") Duration retention) {
+        this.taskRepository = taskRepository;
+        this.retention = retention;
+    }
+
+    @Scheduled(fixedDelayString = "${servicemanual.changes.prune-interval}")
+    void prune() {
+        prune(LocalDateTime.now().minus(retention));
+    }
+
+    // Prunes the tombstones written before the time, except the newest of them. Returns the number deleted.
+    int prune(LocalDateTime before) {
+        long keep = taskRepository.maxExpiredTombstoneSeq(before);
+        if (keep == 0) {
+            return 0;
+        }
+        TaskChanges.pruning(keep - 1);
+        return taskRepository.deleteTombstonesBelow(keep);
+    }
+}
@@ -114,9 +114,9 @@ function saveTask(editExisting=false) {
             throw response;
         }
     }).then(() => {
-        // Close the save task modal and fetch all the tasks again to refresh the tasks lists.
+        // Close the save task modal. The table is updated by the change events (see listenForTaskEvents()).
         saveTaskModal.style.display = "none";
-        fetchTasks();
+        refreshWithoutEvents();
     })
     .catch(err => {
         errorMsg("Error saving task");
@@ -212,6 +212,14 @@ function fillTasksTable(tasks) {
         return;
     }
     
+    for(let task of tasks["_embedded"]["maintenanceTaskList"]) {
+        setTaskRow(tableElement.insertRow(), task);
+    }
+}
+
+function setTaskRow(row, task) {
+    // Fills a table row with the task's data, replacing whatever was in it
+    let tableElement = document.getElementById("tasks-table");
     let severityCell; // We need this to set the red bold font in case severity is critical
     let headerRowCells = tableElement.rows[0].cells;
     for(let i = 0; i < headerRowCells.length; i++) {
@@ -220,48 +228,110 @@ function fillTasksTable(tasks) {
             break;
         }
     }
+    while(row.cells.length > 0) {
+        row.deleteCell(0);
+    }
+
     // Forgive me for setting styles through JS :(
-    for(let task of tasks["_embedded"]["maintenanceTaskList"]) {
+    let id = task.id;
+    let deviceId = task.deviceId;
+    let taskStatus = task.status;
+    let taskSeverity = task.severity;
+    let description = task.description;
+    let registered = task.registered;
+    
+    // Escape the HTML in the description - we don't want XSS attacks :)
+    description = description.replace(/</g, "&lt;");
+    description = description.replace(/>/g, "&gt;");
+    
+    // Task, device, status, severity, description, registered, action
+    row.id = `task-row-${id}`; // task-row-112, so that change events can find the row
+    let allData = [id, deviceId, taskStatus, taskSeverity, description, registered];
+    
+    for(let i in allData) {
+        let cell = row.insertCell(i);
+        cell.innerHTML = allData[i];
+    }
+    if (row.cells[severityCell].innerHTML.toLowerCase() == "critical") {
+        // Set bold red font if the severity is critical
+        row.cells[severityCell].className = "td-severity-critical";
+    }
+    // Now add a cell that contains the actions
+    let actionCell = row.insertCell(allData.length);
+    let editBtn = document.createElement("button");
+    let deleteBtn = document.createElement("button");
+    editBtn.id = `edit-task-btn-${id}`; // edit-btn-task-112
+    editBtn.innerHTML = "Edit";
+    editBtn.className = "task-btn";
+    deleteBtn.id = `delete-task-btn-${id}`; // delete-btn-task-112
+    deleteBtn.innerHTML = "Delete";
+    deleteBtn.className = "task-btn";
+    actionCell.appendChild(editBtn);
+    actionCell.appendChild(deleteBtn);
+    // Add the functions to edit and delete the task
+    editBtn.onclick = function() { openEditTaskDiv(id, deviceId, taskStatus, taskSeverity, description); }
+    deleteBtn.onclick = function() { deleteTask(id); }
+}
 
-        let id = task.id;
-        let deviceId = task.deviceId;
-        let taskStatus = task.status;
-        let taskSeverity = task.severity;
-        let description = task.description;
-        let registered = task.registered;
-        
-        // Escape the HTML in the description - we don't want XSS attacks :)
-        description = description.replace(/</g, "&lt;");
-        description = description.replace(/>/g, "&gt;");
-        
-        // Task, device, status, severity, description, registered, action
-        let row = tableElement.insertRow();
-        let allData = [id, deviceId, taskStatus, taskSeverity, description, registered];
-        
-        for(let i in allData) {
-            let cell = row.insertCell(i);
-            cell.innerHTML = allData[i];
+function taskMatchesFilters(task) {
+    // Whether the task belongs in the table with the current filters
+    if (!document.getElementById("filter-tasks").checked) {
+        return true;
+    }
+    let deviceId = document.getElementById("select-filter-tasks-device").value;
+    let selectStatus = document.getElementById("select-filter-tasks-status").value;
+    let selectSeverity = document.getElementById("select-filter-tasks-severity").value;
+    return (deviceId == -1 || deviceId == task.deviceId)
+        && (selectStatus == -1 || selectStatus == task.status)
+        && (selectSeverity == -1 || selectSeverity == task.severity);
+}
+
+function refreshWithoutEvents() {
+    // Browsers without EventSource get no change events, so they fetch the tasks again after their own changes
+    if (!window.EventSource) {
+        fetchTasks();
+    }
+}
+
+function listenForTaskEvents() {
+    /* Keeps the table up to date with everyone's changes, without fetching the whole list again.
+     * The server sends an event for every created, updated and deleted task (/api/tasks/events),
+     * and we patch the one row it concerns. New tasks are added at the end of the table. */
+    if (!window.EventSource) {
+        return;
+    }
+    let tableElement = document.getElementById("tasks-table");
+    let events = new EventSource("/api/tasks/events");
+    let connected = false;
+    events.onopen = function() {
+        // After a reconnect we may have missed events, so start over from a fresh listing
+        if (connected) {
+            fetchTasks();
         }
-        if (row.cells[severityCell].innerHTML.toLowerCase() == "critical") {
-            // Set bold red font if the severity is critical
-            row.cells[severityCell].className = "td-severity-critical";
+        connected = true;
+    }
+    let upsert = function(event) {
+        let task = JSON.parse(event.data);
+        let row = document.getElementById(`task-row-${task.id}`);
+        if (!taskMatchesFilters(task)) {
+            // Possibly no longer matches after an update
+            if (row) {
+                row.remove();
+            }
+            return;
         }
-        // Now add a cell that contains the actions
-        let actionCell = row.insertCell(allData.length);
-        let editBtn = document.createElement("button");
-        let deleteBtn = document.createElement("button");
-        editBtn.id = `edit-task-btn-${id}`; // edit-btn-task-112
-        editBtn.innerHTML = "Edit";
-        editBtn.className = "task-btn";
-        deleteBtn.id = `delete-task-btn-${id}`; // delete-btn-task-112
-        deleteBtn.innerHTML = "Delete";
-        deleteBtn.className = "task-btn";
-        actionCell.appendChild(editBtn);
-        actionCell.appendChild(deleteBtn);
-        // Add the functions to edit and delete the task
-        editBtn.onclick = function() { openEditTaskDiv(id, deviceId, taskStatus, taskSeverity, description); }
-        deleteBtn.onclick = function() { deleteTask(id); }
+        setTaskRow(row ? row : tableElement.insertRow(), task);
     }
+    events.addEventListener("created", upsert);
+    events.addEventListener("updated", upsert);
+    events.addEventListener("deleted", function(event) {
+        let row = document.getElementById(`task-row-${JSON.parse(event.data).id}`);
+        if (row) {
+            row.remove();
+        }
+    });
+    // Many tasks changed at once
+    events.addEventListener("reset", function() { fetchTasks(); });
 }
 
 function deleteTask(id) {
@@ -274,9 +344,9 @@ function deleteTask(id) {
         method: "DELETE"
     }).then(response => {
         if (response.ok) {
-            // Task delete, fetch tasks.
+            // Task deleted. The row is removed by the change events.
             successMsg(`Task ${id} deleted`);
-            fetchTasks();
+            refreshWithoutEvents();
         }
         else {
             throw response;
@@ -317,9 +387,9 @@ function deleteAllTasks() {
         method: "DELETE"
     }).then(response => {
         if (response.ok) {
-            // Deletion successful.
+            // Deletion successful. The change events tell us to fetch the tasks again.
             successMsg("Tasks deleted");
-            fetchTasks();
+            refreshWithoutEvents();
         }
         else {
             throw response;
@@ -396,3 +466,4 @@ configureFilters();
 configureSaveTaskModalButtons();
 fetchDevices(); // Populate our DeviceID select menus
 fetchTasks(); // Populate the tasks table with all tasks
+listenForTaskEvents(); // And keep it up to date
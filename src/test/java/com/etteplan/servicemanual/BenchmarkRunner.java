@@ -0,0 +1,27 @@
+package com.etteplan.servicemanual;
+
+import org.openjdk.jmh.runner.NoBenchmarksException;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+
+/* Runs the JMH benchmarks for the benchmarks profile (see pom.xml), with JMH's command line options.
+ * Unlike org.openjdk.jmh.Main, it doesn't fail when no JMH benchmark matches -Dbenchmark.include:
+ * the profile's include also selects the JUnit benchmarks, and selecting only one of those is not an error. */
+
+public final class BenchmarkRunner {
+
+    // Private constructor because we want a static class
+    private BenchmarkRunner() {}
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        CommandLineOptions options = new CommandLineOptions(args);
+        try {
+            new Runner(options).run();
+        }
+        catch (NoBenchmarksException ex) {
+            System.out.println("No JMH benchmarks match " + options.getIncludes());
+        }
+    }
+}
@@ -0,0 +1,535 @@
+package com.etteplan.servicemanual;
+
+import com.etteplan.servicemanual.factorydevice.FactoryDevice;
+import com.etteplan.servicemanual.maintenancetask.MaintenanceTask;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/* End-to-end load benchmark at production data sizes.
+ * Generates a database of benchmark.devices devices (10,000 by default) and benchmark.tasks tasks (5,000,000),
+ * once: it is kept under benchmark.data (target/loadbenchmark) and reused by every later run with the same sizes.
+ * Tasks are spread unevenly over the devices, a few devices have many of them, and registered over the three years
+ * before 2023. Every run starts the application on a random port against a fresh copy of that database,
+ * so the writes of one run don't change the data of the next.
+ *
+ * benchmark.clients concurrent clients (64 by default) each send their next request as soon as the previous one is
+ * answered, for benchmark.seconds seconds (60) after a warmup of benchmark.warmup seconds (15).
+ * Each request is drawn from benchmark.mix, weights per operation, which covers every endpoint in api.yml
+ * plus the device endpoints, e.g. -Dbenchmark.mix=list=10,stats=1 only lists and counts.
+ * The filtered operations use a random combination of the TaskFetcher filters each time.
+ * Prints throughput and p50/p95/p99/p999/max latency per endpoint, and per endpoint and filter combination.
+ *
+ * Not a unit test (the name doesn't end in Test), so "mvn test" skips it. Run all benchmarks with "mvn -Pbenchmarks test",
+ * or only this one with
+ *   mvn -Pbenchmarks test -Dbenchmark.include=LoadBenchmark -Dbenchmark.tasks=1000000 -Dbenchmark.clients=128
+ * Generating the default 5,000,000 tasks takes several minutes and about a gigabyte of disk.
+ * Client and server share the machine, so compare runs with each other, not with production numbers. */
+
+public class LoadBenchmark {
+
+    private static final int DEVICES = Integer.getInteger("benchmark.devices", 10000);
+    private static final int TASKS = Integer.getInteger("benchmark.tasks", 5000000);
+    private static final int CLIENTS = Integer.getInteger("benchmark.clients", 64);
+    private static final int SECONDS = Integer.getInteger("benchmark.seconds", 60);
+    private static final int WARMUP = Integer.getInteger("benchmark.warmup", 15);
+    private static final long SEED = Long.getLong("benchmark.seed", 42);
+    private static final String MIX = System.getProperty("benchmark.mix",
+        "list=30,get=15,stats=8,counters=5,changes=3,export=2,stream=2,events=1,cache_stats=1,devices=1,device=5,"
+        + "create=8,batch=2,patch=8,bulk_patch=2,delete=5,bulk_delete=2");
+    // Relative, the R2DBC URL can't take an absolute path
+    private static final String DATA = System.getProperty("benchmark.data", "target/loadbenchmark");
+
+    // Tasks are registered in the three years before this
+    private static final LocalDateTime REGISTERED_END = LocalDateTime.of(2023, 1, 1, 0, 0);
+    private static final long REGISTERED_SECONDS = Duration.ofDays(3 * 365).getSeconds();
+    private static final int BATCH_SIZE = 10000;
+    private static final int BATCH_TASKS = 100;
+
+    private static final List<String> FILTERS = List.of("deviceId", "status", "severity", "registeredFrom", "registeredTo");
+    private static final List<String> STATUSES = List.of("OPEN", "CLOSED");
+    private static final List<String> SEVERITIES = List.of("CRITICAL", "IMPORTANT", "UNIMPORTANT");
+    private static final Pattern TOKEN = Pattern.compile("\"token\"\\s*:\\s*\"(\\d+)\"");
+
+    // One kind of request. filtered: uses a combination of the task filters, required: the filters it always uses.
+    private enum Operation {
+        LIST("GET /api/tasks", true),
+        EXPORT("GET /api/tasks/export", true, "deviceId"),
+        STREAM("GET /api/tasks/stream", true, "deviceId"),
+        STATS("GET /api/tasks/stats", true),
+        COUNTERS("GET /api/tasks/counters", false),
+        CHANGES("GET /api/tasks/changes", false),
+        EVENTS("GET /api/tasks/events", false),
+        CACHE_STATS("GET /api/cache/stats", false),
+        GET("GET /api/tasks/{taskId}", false),
+        DEVICES("GET /factorydevices", false),
+        DEVICE("GET /factorydevices/{id}", false),
+        CREATE("POST /api/tasks", false),
+        BATCH("POST /api/tasks/batch", false),
+        PATCH("PATCH /api/tasks/{taskId}", false),
+        BULK_PATCH("PATCH /api/tasks", true, "deviceId"),
+        DELETE("DELETE /api/tasks/{taskId}", false),
+        BULK_DELETE("DELETE /api/tasks", true, "deviceId", "registeredFrom", "registeredTo");
+
+        final String endpoint;
+        final boolean filtered;
+        final List<String> required;
+
+        Operation(String endpoint, boolean filtered, String... required) {
+            this.endpoint = endpoint;
+            this.filtered = filtered;
+            this.required = List.of(required);
+        }
+    }
+
+    private static class Latencies {
+        final ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>(); // Nanoseconds
+        final LongAdder errors = new LongAdder();
+    }
+
+    // What the clients share: the ids to draw from, the mix, and the results
+    private static class Load {
+        final int port;
+        final long[] deviceIds;
+        final long minTaskId;
+        final long maxTaskId;
+        final Operation[] mix; // Each operation as many times as its weight
+        final long measureFrom;
+        final long end;
+        final Map<String, Latencies> endpoints = new ConcurrentHashMap<>();
+        final Map<String, Latencies> combinations = new ConcurrentHashMap<>();
+        final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        final CountDownLatch finished = new CountDownLatch(CLIENTS);
+
+        Load(int port, long[] deviceIds, long minTaskId, long maxTaskId, Operation[] mix, long measureFrom, long end) {
+            this.port = port;
+            this.deviceIds = deviceIds;
+            this.minTaskId = minTaskId;
+            this.maxTaskId = maxTaskId;
+            this.mix = mix;
+            this.measureFrom = measureFrom;
+            this.end = end;
+        }
+    }
+
+    // One client, with its own random numbers and its own token for the changes endpoint
+    private static class Client {
+        final Random random;
+        String changesToken = "0";
+
+        Client(long seed) {
+            this.random = new Random(seed);
+        }
+    }
+
+    @Test
+    public void runLoad() throws Exception {
+        Path dataset = dataset();
+        Path run = Path.of(DATA, "run.mv.db");
+        Files.copy(dataset, run, StandardCopyOption.REPLACE_EXISTING);
+
+        Load load;
+        try (ConfigurableApplicationContext context = start(Path.of(DATA, "run"))) {
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            JdbcTemplate jdbc = new JdbcTemplate(context.getBean(DataSource.class));
+            long[] deviceIds = jdbc.queryForList("select id from factory_device order by id", Long.class)
+                .stream().mapToLong(Long::longValue).toArray();
+            long minTaskId = jdbc.queryForObject("select min(id) from maintenance_task", Long.class);
+            long maxTaskId = jdbc.queryForObject("select max(id) from maintenance_task", Long.class);
+
+            long start = System.nanoTime();
+            long measureFrom = start + TimeUnit.SECONDS.toNanos(WARMUP);
+            load = new Load(port, deviceIds, minTaskId, maxTaskId, parseMix(MIX), measureFrom,
+                measureFrom + TimeUnit.SECONDS.toNanos(SECONDS));
+            for (int i = 0; i < CLIENTS; i++) {
+                send(load, new Client(SEED + i));
+            }
+            load.finished.await();
+        }
+
+        System.out.format("%d devices, %d tasks, %d clients, %d seconds%n", DEVICES, TASKS, CLIENTS, SECONDS);
+        System.out.println("Per endpoint:");
+        report(load.endpoints);
+        System.out.println("Per endpoint and filter combination:");
+        report(load.combinations);
+        assertFalse(load.endpoints.isEmpty());
+    }
+
+    // DATASET
+
+    private static Path dataset() throws Exception {
+        // The generated database for the configured sizes, generated first if there is none yet
+        Path dataset = Path.of(DATA, String.format("tasks-%d-%d.mv.db", DEVICES, TASKS));
+        if (Files.exists(dataset)) {
+            System.out.println("Using " + dataset);
+            return dataset;
+        }
+        Files.createDirectories(dataset.getParent());
+        Path building = Path.of(DATA, "building.mv.db");
+        Files.deleteIfExists(building);
+        // Hibernate creates the schema and initDatabase its 100 devices and 300 tasks, the rest is inserted here
+        try (ConfigurableApplicationContext context = start(Path.of(DATA, "building"))) {
+            generate(context.getBean(DataSource.class));
+        }
+        Files.move(building, dataset);
+        return dataset;
+    }
+
+    private static void generate(DataSource dataSource) throws Exception {
+        Random random = new Random(SEED);
+        DatabaseInitializer initializer = new DatabaseInitializer();
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            connection.setAutoCommit(false);
+            JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+            long id = jdbc.queryForObject("select greatest((select coalesce(max(id), 0) from factory_device), "
+                + "(select coalesce(max(id), 0) from maintenance_task))", Long.class);
+
+            List<Long> deviceIds = new ArrayList<>(jdbc.queryForList("select id from factory_device", Long.class));
+            try (PreparedStatement insert = connection.prepareStatement("insert into factory_device (id, name, year, type) values (?, ?, ?, ?)")) {
+                for (int i = deviceIds.size(); i < DEVICES; i++) {
+                    FactoryDevice device = initializer.createRandomDevice();
+                    insert.setLong(1, ++id);
+                    insert.setString(2, device.getName());
+                    insert.setInt(3, device.getYear());
+                    insert.setString(4, device.getType());
+                    insert.addBatch();
+                    deviceIds.add(id);
+                    if (deviceIds.size() % BATCH_SIZE == 0) {
+                        insert.executeBatch();
+                        connection.commit();
+                    }
+                }
+                insert.executeBatch();
+                connection.commit();
+            }
+
+            long tasks = jdbc.queryForObject("select count(*) from maintenance_task", Long.class);
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "insert into maintenance_task (id, device_id, severity, status, description, registered) values (?, ?, ?, ?, ?, ?)")) {
+                for (long i = tasks; i < TASKS; i++) {
+                    // Squaring the uniform number gives the first devices many more tasks than the last ones
+                    double skew = random.nextDouble();
+                    long deviceId = deviceIds.get((int) (skew * skew * deviceIds.size()));
+                    MaintenanceTask task = initializer.createRandomTask(deviceId);
+                    insert.setLong(1, ++id);
+                    insert.setLong(2, deviceId);
+                    insert.setInt(3, task.getSeverity().getRank());
+                    insert.setInt(4, task.getStatus().ordinal());
+                    insert.setString(5, task.getDescription());
+                    insert.setTimestamp(6, Timestamp.valueOf(REGISTERED_END.minusSeconds((long) (random.nextDouble() * REGISTERED_SECONDS))));
+                    insert.addBatch();
+                    if ((i + 1) % BATCH_SIZE == 0) {
+                        insert.executeBatch();
+                        connection.commit();
+                    }
+                    if ((i + 1) % 500000 == 0) {
+                        System.out.format("Generated %d tasks%n", i + 1);
+                    }
+                }
+                insert.executeBatch();
+                connection.commit();
+            }
+            // The application's own inserts continue after the generated ids
+            statement.execute(String.format("alter sequence hibernate_sequence restart with %d", id + 1));
+            connection.commit();
+        }
+    }
+
+    private static ConfigurableApplicationContext start(Path database) {
+        return new SpringApplicationBuilder(ServiceManualApplication.class)
+            .properties(
+                "server.port=0",
+                "spring.datasource.url=jdbc:h2:file:./" + database,
+                "servicemanual.r2dbc.url=r2dbc:h2:file:///./" + database)
+            .run();
+    }
+
+    // LOAD
+
+    private static Operation[] parseMix(String mix) {
+        List<Operation> operations = new ArrayList<>();
+        for (String entry : mix.split(",")) {
+            String[] weight = entry.trim().split("=");
+            Operation operation = Operation.valueOf(weight[0].trim().toUpperCase());
+            for (int i = Integer.parseInt(weight[1].trim()); i > 0; i--) {
+                operations.add(operation);
+            }
+        }
+        if (operations.isEmpty()) {
+            throw new IllegalArgumentException("benchmark.mix has no operations: " + mix);
+        }
+        return operations.toArray(new Operation[0]);
+    }
+
+    private static void send(Load load, Client client) {
+        // One client: sends the next request when the previous one is answered, until the end
+        long sent = System.nanoTime();
+        if (sent >= load.end) {
+            load.finished.countDown();
+            return;
+        }
+        Random random = client.random;
+        Operation operation = load.mix[random.nextInt(load.mix.length)];
+        Map<String, String> filters = operation.filtered ? filters(load, random, operation.required) : Map.of();
+        HttpRequest request = request(load, client, operation, filters);
+        String combination = operation.endpoint + " [" + (filters.isEmpty() ? "no filters" : String.join("+", filters.keySet())) + "]";
+
+        CompletableFuture<? extends HttpResponse<?>> response;
+        if (operation == Operation.EVENTS) {
+            // The event stream never ends, so only the time to its response headers is measured
+            response = load.client.sendAsync(request, LoadBenchmark::headersOnly);
+        }
+        else if (operation == Operation.CHANGES) {
+            response = load.client.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+        }
+        else {
+            response = load.client.sendAsync(request, HttpResponse.BodyHandlers.discarding());
+        }
+        response.whenComplete((answer, error) -> {
+            long received = System.nanoTime();
+            boolean measured = sent >= load.measureFrom && received <= load.end;
+            Latencies endpoint = load.endpoints.computeIfAbsent(operation.endpoint, key -> new Latencies());
+            Latencies filtered = operation.filtered ? load.combinations.computeIfAbsent(combination, key -> new Latencies()) : null;
+            if (error != null || !expected(operation, answer.statusCode())) {
+                if (measured) {
+                    endpoint.errors.increment();
+                    if (filtered != null) {
+                        filtered.errors.increment();
+                    }
+                }
+            }
+            else {
+                if (operation == Operation.CHANGES) {
+                    Matcher token = TOKEN.matcher((String) answer.body());
+                    if (token.find()) {
+                        client.changesToken = token.group(1);
+                    }
+                }
+                if (measured) {
+                    endpoint.latencies.add(received - sent);
+                    if (filtered != null) {
+                        filtered.latencies.add(received - sent);
+                    }
+                }
+            }
+            send(load, client);
+        });
+    }
+
+    private static boolean expected(Operation operation, int status) {
+        switch (operation) {
+            case GET:
+            case PATCH:
+            case DELETE:
+                // The task may have been deleted by another client
+                return status == 200 || status == 404;
+            case CREATE:
+                return status == 201;
+            default:
+                return status == 200;
+        }
+    }
+
+    private static Map<String, String> filters(Load load, Random random, List<String> required) {
+        // A random combination of the filters, each used half of the time, plus the required ones. In FILTERS order.
+        Map<String, String> filters = new TreeMap<>((a, b) -> FILTERS.indexOf(a) - FILTERS.indexOf(b));
+        for (String filter : FILTERS) {
+            if (required.contains(filter) || random.nextBoolean()) {
+                filters.put(filter, null);
+            }
+        }
+        LocalDateTime from = REGISTERED_END.minusSeconds((long) (random.nextDouble() * REGISTERED_SECONDS));
+        for (String filter : filters.keySet()) {
+            switch (filter) {
+                case "deviceId":
+                    filters.put(filter, String.valueOf(randomDevice(load, random)));
+                    break;
+                case "status":
+                    filters.put(filter, STATUSES.get(random.nextInt(STATUSES.size())));
+                    break;
+                case "severity":
+                    filters.put(filter, SEVERITIES.get(random.nextInt(SEVERITIES.size())));
+                    break;
+                case "registeredFrom":
+                    filters.put(filter, from.toString());
+                    break;
+                default:
+                    // A 30 day window when both ends are given
+                    filters.put(filter, from.plusDays(30).toString());
+            }
+        }
+        return filters;
+    }
+
+    private static HttpRequest request(Load load, Client client, Operation operation, Map<String, String> filters) {
+        Random random = client.random;
+        StringBuilder query = new StringBuilder();
+        filters.forEach((name, value) -> query.append(query.length() == 0 ? "?" : "&").append(name).append('=').append(value));
+        long taskId = load.minTaskId + (long) (random.nextDouble() * (load.maxTaskId - load.minTaskId + 1));
+        String path;
+        String body = null;
+        String contentType = "application/json";
+        String method = operation.endpoint.substring(0, operation.endpoint.indexOf(' '));
+        switch (operation) {
+            case LIST:
+                path = "/api/tasks" + query + (query.length() == 0 ? "?" : "&") + "limit=50";
+                break;
+            case EXPORT:
+                path = "/api/tasks/export" + query;
+                break;
+            case STREAM:
+                path = "/api/tasks/stream" + query;
+                break;
+            case STATS:
+                path = "/api/tasks/stats" + query + (query.length() == 0 ? "?" : "&") + "groupBy=status";
+                break;
+            case COUNTERS:
+                path = "/api/tasks/counters?status=OPEN";
+                break;
+            case CHANGES:
+                path = "/api/tasks/changes?since=" + client.changesToken;
+                break;
+            case EVENTS:
+                path = "/api/tasks/events";
+                break;
+            case CACHE_STATS:
+                path = "/api/cache/stats";
+                break;
+            case DEVICES:
+                path = "/factorydevices";
+                break;
+            case DEVICE:
+                path = "/factorydevices/" + randomDevice(load, random);
+                break;
+            case CREATE:
+                path = "/api/tasks";
+                body = newTask(load, random);
+                break;
+            case BATCH:
+                path = "/api/tasks/batch";
+                StringBuilder tasks = new StringBuilder();
+                for (int i = 0; i < BATCH_TASKS; i++) {
+                    tasks.append(newTask(load, random)).append('\n');
+                }
+                body = tasks.toString();
+                contentType = "application/x-ndjson";
+                break;
+            case PATCH:
+                path = "/api/tasks/" + taskId;
+                body = String.format("{\"status\":\"%s\"}", STATUSES.get(random.nextInt(STATUSES.size())));
+                break;
+            case BULK_PATCH:
+                path = "/api/tasks" + query;
+                body = String.format("{\"severity\":\"%s\"}", SEVERITIES.get(random.nextInt(SEVERITIES.size())));
+                break;
+            case BULK_DELETE:
+                path = "/api/tasks" + query;
+                break;
+            default:
+                // GET and DELETE of a single task
+                path = "/api/tasks/" + taskId;
+        }
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(String.format("http://localhost:%d%s", load.port, path)))
+            .timeout(Duration.ofSeconds(60));
+        if (body != null) {
+            request.header("Content-Type", contentType).method(method, HttpRequest.BodyPublishers.ofString(body));
+        }
+        else {
+            request.method(method, HttpRequest.BodyPublishers.noBody());
+        }
+        return request.build();
+    }
+
+    private static long randomDevice(Load load, Random random) {
+        // Uniform, so the devices with many tasks are as likely as the ones with few
+        return load.deviceIds[random.nextInt(load.deviceIds.length)];
+    }
+
+    private static String newTask(Load load, Random random) {
+        return String.format("{\"deviceId\":%d,\"severity\":\"%s\",\"status\":\"OPEN\",\"description\":\"Load benchmark task\"}",
+            randomDevice(load, random), SEVERITIES.get(random.nextInt(SEVERITIES.size())));
+    }
+
+    private static HttpResponse.BodySubscriber<Void> headersOnly(HttpResponse.ResponseInfo info) {
+        // Completes as soon as the headers are in, and closes the stream
+        return new HttpResponse.BodySubscriber<>() {
+            @Override
+            public CompletionStage<Void> getBody() {
+                return CompletableFuture.completedFuture(null);
+            }
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.cancel();
+            }
+
+            @Override
+            public void onNext(List<ByteBuffer> item) {}
+
+            @Override
+            public void onError(Throwable throwable) {}
+
+            @Override
+            public void onComplete() {}
+        };
+    }
+
+    // REPORT
+
+    private static void report(Map<String, Latencies> results) {
+        System.out.format("%-70s %9s %9s %9s %9s %9s %9s %9s %7s%n", "", "req/s", "p50 ms", "p95 ms", "p99 ms", "p999 ms", "max ms", "count", "errors");
+        for (Map.Entry<String, Latencies> result : new TreeMap<>(results).entrySet()) {
+            long[] sorted = result.getValue().latencies.stream().mapToLong(Long::longValue).toArray();
+            Arrays.sort(sorted);
+            System.out.format("%-70s %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f %9d %7d%n", result.getKey(),
+                (double) sorted.length / SECONDS, percentileMillis(sorted, 50), percentileMillis(sorted, 95),
+                percentileMillis(sorted, 99), percentileMillis(sorted, 99.9), percentileMillis(sorted, 100),
+                sorted.length, result.getValue().errors.sum());
+        }
+    }
+
+    private static double percentileMillis(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
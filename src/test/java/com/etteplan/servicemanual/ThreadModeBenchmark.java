@@ -0,0 +1,149 @@
+package com.etteplan.servicemanual;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Load benchmark of the two request execution modes: Tomcat's worker pool (the default),
+ * and a virtual thread per request (servicemanual.virtual-threads=true, see VirtualThreadConfiguration).
+ * Starts the application once per mode, on a random port with its own in-memory database, and runs the same load
+ * against both: benchmark.clients concurrent clients (1000 by default), each sending its next request as soon as
+ * the previous one is answered, for benchmark.seconds seconds after a warmup of benchmark.warmup seconds.
+ * Requests alternate between a page of a random device's tasks and that device's task statistics,
+ * a GROUP BY that always goes to the database. Prints throughput and p50/p99/p999/max latency per mode.
+ *
+ * Not a unit test (the name doesn't end in Test), so "mvn test" skips it. Run all benchmarks with "mvn -Pbenchmarks test",
+ * or only this one with
+ *   mvn -Pbenchmarks test -Dbenchmark.include=ThreadModeBenchmark -Dbenchmark.clients=2000 -Dbenchmark.seconds=30
+ * The virtual thread mode needs a Java 21 runtime. The build targets Java 17, so on the JDK it is usually built with
+ * that mode can't run: it is then reported as a skipped test, and no numbers are printed for it.
+ * Run the benchmark with a Java 21 JDK to measure both modes.
+ * Client and server share the machine, so compare the modes with each other, not with production numbers. */
+
+public class ThreadModeBenchmark {
+
+    private static final int CLIENTS = Integer.getInteger("benchmark.clients", 1000);
+    private static final int SECONDS = Integer.getInteger("benchmark.seconds", 20);
+    private static final int WARMUP = Integer.getInteger("benchmark.warmup", 5);
+    // ServiceManualApplication.initDatabase creates devices 1 to 100
+    private static final int DEVICES = 100;
+
+    private static class Result {
+        final String mode;
+        final long[] latencies; // Nanoseconds, sorted
+        final long errors;
+
+        Result(String mode, long[] latencies, long errors) {
+            this.mode = mode;
+            this.latencies = latencies;
+            this.errors = errors;
+        }
+
+        double percentileMillis(double percentile) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+            return latencies[Math.max(0, index)] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-12s %10.0f req/s   p50 %8.2f ms   p99 %8.2f ms   p999 %8.2f ms   max %8.2f ms   errors %d",
+                mode, (double) latencies.length / SECONDS, percentileMillis(50), percentileMillis(99), percentileMillis(99.9),
+                percentileMillis(100), errors);
+        }
+    }
+
+    @Test
+    public void workerPool() throws Exception {
+        Result result = run(false);
+        System.out.format("%d clients, %d seconds%n", CLIENTS, SECONDS);
+        System.out.println(result);
+        assertTrue(result.latencies.length > 0);
+    }
+
+    @Test
+    public void virtualThreads() throws Exception {
+        assumeTrue(Runtime.version().feature() >= 21,
+            "Virtual threads need a Java 21 runtime, running on Java " + Runtime.version().feature() + ": not measured");
+        Result result = run(true);
+        System.out.format("%d clients, %d seconds%n", CLIENTS, SECONDS);
+        System.out.println(result);
+        assertTrue(result.latencies.length > 0);
+    }
+
+    private Result run(boolean virtualThreads) throws Exception {
+        String mode = virtualThreads ? "virtual" : "worker pool";
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(ServiceManualApplication.class)
+                .properties(
+                    "server.port=0",
+                    "spring.datasource.url=jdbc:h2:mem:threadmode" + virtualThreads + ";DB_CLOSE_DELAY=-1",
+                    "spring.jpa.hibernate.ddl-auto=create-drop",
+                    "servicemanual.virtual-threads=" + virtualThreads)
+                .run()) {
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+            long start = System.nanoTime();
+            long measureFrom = start + TimeUnit.SECONDS.toNanos(WARMUP);
+            long end = measureFrom + TimeUnit.SECONDS.toNanos(SECONDS);
+            ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+            LongAdder errors = new LongAdder();
+            CountDownLatch finished = new CountDownLatch(CLIENTS);
+            for (int i = 0; i < CLIENTS; i++) {
+                send(client, port, measureFrom, end, latencies, errors, finished);
+            }
+            finished.await();
+
+            long[] sorted = latencies.stream().mapToLong(Long::longValue).toArray();
+            Arrays.sort(sorted);
+            return new Result(mode, sorted, errors.sum());
+        }
+    }
+
+    private void send(HttpClient client, int port, long measureFrom, long end, ConcurrentLinkedQueue<Long> latencies,
+            LongAdder errors, CountDownLatch finished) {
+        // One client: sends the next request when the previous one is answered, until the end
+        long sent = System.nanoTime();
+        if (sent >= end) {
+            finished.countDown();
+            return;
+        }
+        client.sendAsync(request(port), HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+            long received = System.nanoTime();
+            if (error != null || response.statusCode() != 200) {
+                errors.increment();
+            }
+            else if (sent >= measureFrom && received <= end) {
+                latencies.add(received - sent);
+            }
+            send(client, port, measureFrom, end, latencies, errors, finished);
+        });
+    }
+
+    private static HttpRequest request(int port) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int deviceId = random.nextInt(DEVICES) + 1;
+        String path = random.nextBoolean()
+            ? String.format("/api/tasks?deviceId=%d&limit=20", deviceId)
+            : String.format("/api/tasks/stats?deviceId=%d&groupBy=status", deviceId);
+        return HttpRequest.newBuilder(URI.create(String.format("http://localhost:%d%s", port, path)))
+            .timeout(Duration.ofSeconds(60)).GET().build();
+    }
+}
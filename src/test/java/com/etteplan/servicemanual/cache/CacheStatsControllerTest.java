@@ -0,0 +1,50 @@
+package com.etteplan.servicemanual.cache;
+
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import static org.junit.jupiter.api.Assertions.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+
+import com.etteplan.servicemanual.factorydevice.FactoryDevice;
+import com.etteplan.servicemanual.factorydevice.FactoryDeviceRepository;
+
+import org.json.*;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest
+@AutoConfigureMockMvc
+public class CacheStatsControllerTest {
+
+    @Autowired
+    private MockMvc mvc;
+
+    @Autowired
+    private FactoryDeviceRepository deviceRepository;
+
+    private JSONObject getStats() throws Exception {
+        String body = mvc.perform(MockMvcRequestBuilders.get("/api/cache/stats").accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+        return new JSONObject(body);
+    }
+
+    @Test
+    public void repeatedLookupsHitTheCache() throws Exception {
+        FactoryDevice device = deviceRepository.findAll().get(0);
+        String url = String.format("/factorydevices/%d", device.getId());
+        mvc.perform(MockMvcRequestBuilders.get(url).accept(MediaType.APPLICATION_JSON)).andExpect(status().isOk());
+        long hits = getStats().getJSONObject("devices").getLong("hits");
+        mvc.perform(MockMvcRequestBuilders.get(url).accept(MediaType.APPLICATION_JSON)).andExpect(status().isOk());
+        JSONObject devices = getStats().getJSONObject("devices");
+        assertEquals(hits + 1, devices.getLong("hits"));
+        assertTrue(devices.getLong("size") > 0);
+        assertTrue(getStats().has("tasks"));
+    }
+}
@@ -1,12 +1,14 @@
 package com.etteplan.servicemanual.factorydevice;
 
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
@@ -31,4 +33,22 @@ public class FactoryDeviceControllerTest {
         mvc.perform(MockMvcRequestBuilders.get("/factorydevices/999").accept(MediaType.APPLICATION_JSON))
             .andExpect(status().isNotFound());
     }
+
+    @Test
+    public void getFactoryDeviceIfNoneMatchAny() throws Exception {
+        // "*" matches an existing device, a missing one is still 404
+        mvc.perform(MockMvcRequestBuilders.get("/factorydevices/1").header(HttpHeaders.IF_NONE_MATCH, "*").accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isNotModified());
+        mvc.perform(MockMvcRequestBuilders.get("/factorydevices/999").header(HttpHeaders.IF_NONE_MATCH, "*").accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void getFactoryDevicesNotModified() throws Exception {
+        String etag = mvc.perform(MockMvcRequestBuilders.get("/factorydevices").accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk()).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        mvc.perform(MockMvcRequestBuilders.get("/factorydevices").header(HttpHeaders.IF_NONE_MATCH, etag).accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isNotModified())
+            .andExpect(content().string(""));
+    }
 }
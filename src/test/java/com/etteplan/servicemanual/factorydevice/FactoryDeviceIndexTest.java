@@ -0,0 +1,30 @@
+package com.etteplan.servicemanual.factorydevice;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+@SpringBootTest
+public class FactoryDeviceIndexTest {
+
+    @Autowired
+    private FactoryDeviceRepository deviceRepository;
+
+    @Test
+    public void containsEveryDevice() {
+        for (FactoryDevice device : deviceRepository.findAll()) {
+            assertTrue(FactoryDeviceIndex.contains(device.getId()));
+        }
+        assertEquals(deviceRepository.count(), FactoryDeviceIndex.size());
+        assertFalse(FactoryDeviceIndex.contains(999999L));
+    }
+
+    @Test
+    public void followsCreatedAndDeletedDevices() {
+        FactoryDevice device = deviceRepository.save(new FactoryDevice("Index test", 2020, "Fan"));
+        assertTrue(FactoryDeviceIndex.contains(device.getId()));
+        deviceRepository.delete(device);
+        assertFalse(FactoryDeviceIndex.contains(device.getId()));
+    }
+}
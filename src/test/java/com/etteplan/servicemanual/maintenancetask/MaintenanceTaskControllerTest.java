@@ -1,13 +1,19 @@
 package com.etteplan.servicemanual.maintenancetask;
 
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import static org.junit.jupiter.api.Assertions.*;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
@@ -18,8 +24,10 @@ import com.etteplan.servicemanual.maintenancetask.MaintenanceTaskRepository;
 import com.etteplan.servicemanual.maintenancetask.TaskStatus;
 import com.etteplan.servicemanual.maintenancetask.TaskSeverity;
 
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Arrays;
 import java.util.Random; // For random task descriptions
 
@@ -42,6 +50,15 @@ public class MaintenanceTaskControllerTest {
     @Autowired
     private MaintenanceTaskRepository taskRepository;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Autowired
+    private TombstonePruner tombstonePruner;
+
     private final Random random = new Random();
 
     private List<String> taskDescriptions = Arrays.asList(
@@ -72,6 +89,21 @@ public class MaintenanceTaskControllerTest {
         return taskRepository.save(task);
     }
 
+    private List<MaintenanceTask> findTasks(Long deviceId, TaskStatus status, TaskSeverity severity) {
+        // Tasks matching the given filters, straight from the repository. Null filters are left out.
+        TaskQuery query = new TaskQuery();
+        if (deviceId != null) {
+            query.setDeviceId(TaskFilter.equalTo(deviceId));
+        }
+        if (status != null) {
+            query.setStatus(TaskFilter.equalTo(status));
+        }
+        if (severity != null) {
+            query.setSeverity(TaskFilter.equalTo(severity));
+        }
+        return taskRepository.findAll(query);
+    }
+
     private JSONArray getTaskArray(JSONObject jsonResult) throws JSONException {
         JSONObject em = jsonResult.getJSONObject("_embedded");
         JSONArray taskArray = em.getJSONArray("maintenanceTaskList");
@@ -146,6 +178,321 @@ public class MaintenanceTaskControllerTest {
         }
     }
 
+    @Test
+    public void getMaintenanceTasksCachedUntilWrite() throws Exception {
+        // The same filters in a different order are the same cached page,
+        // and a task write makes the next request query again. Only pages are cached.
+        createMaintenanceTask(13L, TaskStatus.OPEN, TaskSeverity.CRITICAL);
+        String first = mvc.perform(MockMvcRequestBuilders.get(API_TASKS).param("deviceId", "13").param("status", "OPEN")
+                .param("limit", "1000").accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+        String second = mvc.perform(MockMvcRequestBuilders.get(API_TASKS).param("limit", "1000").param("status", "OPEN")
+                .param("deviceId", "13").accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+        assertEquals(first, second);
+        int count = getTaskArray(new JSONObject(first)).length();
+
+        createMaintenanceTask(13L, TaskStatus.OPEN, TaskSeverity.CRITICAL);
+        String third = mvc.perform(MockMvcRequestBuilders.get(API_TASKS).param("deviceId", "13").param("status", "OPEN")
+                .param("limit", "1000").accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+        assertEquals(count + 1, getTaskArray(new JSONObject(third)).length());
+    }
+
+    @Test
+    public void getMaintenanceTasksRelativeWindowNotCached() throws Exception {
+        // The window moves with the clock, so there's no ETag to revalidate against
+        mvc.perform(MockMvcRequestBuilders.get(API_TASKS).param("registeredFrom", "PT24H").param("limit", "10")
+                .accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk())
+            .andExpect(header().doesNotExist(HttpHeaders.ETAG));
+        mvc.perform(MockMvcRequestBuilders.get(API_TASKS).param("registeredFrom", "2022-01-01").param("limit", "10")
+                .accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk())
+            .andExpect(header().exists(HttpHeaders.ETAG));
+    }
+
+    @Test
+    public void getMaintenanceTaskNotModifiedUntilWrite() throws Exception {
+        MaintenanceTask task = createMaintenanceTask(1L, TaskStatus.OPEN, TaskSeverity.IMPORTANT);
+        String uri = String.format(API_TASKID, task.getId());
+        String etag = mvc.perform(MockMvcRequestBuilders.get(uri).accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk()).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertNotNull(etag);
+        mvc.perform(MockMvcRequestBuilders.get(uri).header(HttpHeaders.IF_NONE_MATCH, etag).accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isNotModified());
+
+        // After a write the old ETag no longer matches, for the task and for the listing
+        task.setStatus(TaskStatus.CLOSED);
+        taskRepository.save(task);
+        mvc.perform(MockMvcRequestBuilders.get(uri).header(HttpHeaders.IF_NONE_MATCH, etag).accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk());
+        String listEtag = mvc.perform(MockMvcRequestBuilders.get(API_TASKS).accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk()).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        mvc.perform(MockMvcRequestBuilders.get(API_TASKS).header(HttpHeaders.IF_NONE_MATCH, listEtag).accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isNotModified());
+    }
+
+    @Test
+    public void getMaintenanceTaskIfNoneMatchAny() throws Exception {
+        // "*" matches an existing task, a missing one is still 404
+        MaintenanceTask task = createMaintenanceTask(1L, TaskStatus.OPEN, TaskSeverity.IMPORTANT);
+        mvc.perform(MockMvcRequestBuilders.get(String.format(API_TASKID, task.getId())).header(HttpHeaders.IF_NONE_MATCH, "*")
+                .accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isNotModified());
+        mvc.perform(MockMvcRequestBuilders.get("/api/tasks/123456789").header(HttpHeaders.IF_NONE_MATCH, "*")
+                .accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void getMaintenanceTaskLinks() throws Exception {
+        MaintenanceTask task = createMaintenanceTask(1L, TaskStatus.OPEN, TaskSeverity.IMPORTANT);
+        MvcResult result = mvc.perform(MockMvcRequestBuilders.get(String.format(API_TASKID, task.getId())).accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk()).andReturn();
+        JSONObject links = new JSONObject(result.getResponse().getContentAsString()).getJSONObject("_links");
+        assertEquals("http://localhost" + String.format(API_TASKID, task.getId()), links.getJSONObject("self").getString("href"));
+        assertEquals("http://localhost" + API_TASKS, links.getJSONObject("tasks").getString("href"));
+    }
+
+    @Test
+    public void getMaintenanceTasksSparseFields() throws Exception {
+        MaintenanceTask created = createMaintenanceTask(14L, TaskStatus.OPEN, TaskSeverity.CRITICAL);
+        MvcResult result = mvc.perform(MockMvcRequestBuilders.get(API_TASKS).param("deviceId", "14").param("fields", "id,severity")
+                .accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk()).andReturn();
+        JSONArray taskArray = getTaskArray(new JSONObject(result.getResponse().getContentAsString()));
+        JSONObject createdTask = null;
+        for (int i = 0; i < taskArray.length(); i++) {
+            JSONObject task = taskArray.getJSONObject(i);
+            assertTrue(task.has("severity"));
+            assertFalse(task.has("description"));
+            assertFalse(task.has("deviceId"));
+            assertEquals("http://localhost" + String.format(API_TASKID, task.getLong("id")),
+                task.getJSONObject("_links").getJSONObject("self").getString("href"));
+            if (task.getLong("id") == created.getId()) {
+                createdTask = task;
+            }
+        }
+        // Other tasks of the device are seeded with random severities, only the created one is known
+        assertNotNull(createdTask);
+        assertEquals("CRITICAL", createdTask.getString("severity"));
+    }
+
+    @Test
+    public void getTaskStats() throws Exception {
+        createMaintenanceTask(16L, TaskStatus.OPEN, TaskSeverity.CRITICAL);
+        MvcResult result = mvc.perform(MockMvcRequestBuilders.get(API_TASKS + "/stats").param("deviceId", "16").param("groupBy", "severity")
+                .accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk()).andReturn();
+        JSONObject stats = new JSONObject(result.getResponse().getContentAsString());
+        int total = findTasks(16L, null, null).size();
+        assertEquals(total, stats.getLong("total"));
+        JSONArray groups = stats.getJSONArray("groups");
+        long sum = 0;
+        for (int i = 0; i < groups.length(); i++) {
+            sum += groups.getJSONObject(i).getLong("count");
+            assertTrue(groups.getJSONObject(i).has("severity"));
+        }
+        assertEquals(total, sum);
+
+        mvc.perform(MockMvcRequestBuilders.get(API_TASKS + "/stats").param("groupBy", "description").accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isBadRequest());
+    }
+
+    private long openCriticalCount(long deviceId) throws Exception {
+        // Count of the device in GET /api/tasks/counters?status=OPEN&severity=CRITICAL
+        MvcResult result = mvc.perform(MockMvcRequestBuilders.get(API_TASKS + "/counters").param("status", "OPEN").param("severity", "CRITICAL")
+                .accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk()).andReturn();
+        return new JSONObject(result.getResponse().getContentAsString()).optLong(Long.toString(deviceId), 0);
+    }
+
+    @Test
+    public void getTaskCountersFollowWrites() throws Exception {
+        MaintenanceTask task = createMaintenanceTask(17L, TaskStatus.OPEN, TaskSeverity.CRITICAL);
+        createMaintenanceTask(17L, TaskStatus.OPEN, TaskSeverity.CRITICAL);
+        assertEquals(findTasks(17L, TaskStatus.OPEN, TaskSeverity.CRITICAL).size(), openCriticalCount(17L));
+
+        // Closing a task moves it to another counter
+        mvc.perform(MockMvcRequestBuilders.patch(String.format(API_TASKID, task.getId())).accept(MediaType.APPLICATION_JSON)
+                .contentType(MediaType.APPLICATION_JSON).content("{\"status\": \"CLOSED\"}"))
+            .andExpect(status().isOk());
+        assertEquals(findTasks(17L, TaskStatus.OPEN, TaskSeverity.CRITICAL).size(), openCriticalCount(17L));
+
+        // Bulk deletes are counted too
+        mvc.perform(MockMvcRequestBuilders.delete(API_TASKS).param("deviceId", "17").accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk());
+        assertEquals(0, openCriticalCount(17L));
+
+        mvc.perform(MockMvcRequestBuilders.get(API_TASKS + "/counters").param("deviceId", "17").accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void taskEventsStreamChanges() throws Exception {
+        MvcResult result = mvc.perform(MockMvcRequestBuilders.get(API_TASKS + "/events").accept(MediaType.TEXT_EVENT_STREAM))
+            .andExpect(request().asyncStarted()).andReturn();
+        MaintenanceTask task = createMaintenanceTask(18L, TaskStatus.OPEN, TaskSeverity.CRITICAL);
+        taskRepository.delete(task);
+        // Events are written by a sender thread, wait for them
+        String expected = String.format("event:deleted\ndata:{\"id\":%d}", task.getId());
+        for (int i = 0; i < 50 && !result.getResponse().getContentAsString().contains(expected); i++) {
+            Thread.sleep(100);
+        }
+        String events = result.getResponse().getContentAsString();
+        assertTrue(events.contains("event:created\ndata:{\"id\":" + task.getId() + ","));
+        assertTrue(events.contains(expected));
+    }
+
+    @Test
+    public void getTaskChangesSinceToken() throws Exception {
+        MaintenanceTask edited = createMaintenanceTask(19L, TaskStatus.OPEN, TaskSeverity.CRITICAL);
+        MaintenanceTask deleted = createMaintenanceTask(19L, TaskStatus.OPEN, TaskSeverity.CRITICAL);
+        MvcResult result = mvc.perform(MockMvcRequestBuilders.get(API_TASKS + "/changes").accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk()).andReturn();
+        JSONObject full = new JSONObject(result.getResponse().getContentAsString());
+        assertTrue(full.getBoolean("full"));
+        String token = full.getString("token");
+
+        MaintenanceTask created = createMaintenanceTask(19L, TaskStatus.OPEN, TaskSeverity.IMPORTANT);
+        mvc.perform(MockMvcRequestBuilders.patch(String.format(API_TASKID, edited.getId())).accept(MediaType.APPLICATION_JSON)
+                .contentType(MediaType.APPLICATION_JSON).content("{\"status\": \"CLOSED\"}"))
+            .andExpect(status().isOk());
+        taskRepository.delete(deleted);
+
+        // Only the three changes come back
+        result = mvc.perform(MockMvcRequestBuilders.get(API_TASKS + "/changes").param("since", token).accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk()).andReturn();
+        JSONObject changes = new JSONObject(result.getResponse().getContentAsString());
+        assertFalse(changes.getBoolean("full"));
+        JSONArray changed = changes.getJSONArray("changed");
+        assertEquals(2, changed.length());
+        assertEquals((long) created.getId(), changed.getJSONObject(0).getLong("id"));
+        assertEquals((long) edited.getId(), changed.getJSONObject(1).getLong("id"));
+        assertEquals("CLOSED", changed.getJSONObject(1).getString("status"));
+        assertEquals(1, changes.getJSONArray("deleted").length());
+        assertEquals((long) deleted.getId(), changes.getJSONArray("deleted").getLong(0));
+
+        // Nothing changed since the new token
+        result = mvc.perform(MockMvcRequestBuilders.get(API_TASKS + "/changes").param("since", changes.getString("token"))
+                .accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk()).andReturn();
+        changes = new JSONObject(result.getResponse().getContentAsString());
+        assertEquals(0, changes.getJSONArray("changed").length());
+        assertEquals(0, changes.getJSONArray("deleted").length());
+
+        mvc.perform(MockMvcRequestBuilders.get(API_TASKS + "/changes").param("since", "yesterday").accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void getTaskChangesAfterBulkDelete() throws Exception {
+        // A bulk delete leaves a tombstone for every task it deleted
+        createMaintenanceTask(23L, TaskStatus.CLOSED, TaskSeverity.UNIMPORTANT);
+        MvcResult result = mvc.perform(MockMvcRequestBuilders.get(API_TASKS + "/changes").accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk()).andReturn();
+        String token = new JSONObject(result.getResponse().getContentAsString()).getString("token");
+        List<MaintenanceTask> tasks = findTasks(23L, TaskStatus.CLOSED, null);
+        mvc.perform(MockMvcRequestBuilders.delete(API_TASKS).param("deviceId", "23").param("status", "CLOSED").accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk());
+
+        result = mvc.perform(MockMvcRequestBuilders.get(API_TASKS + "/changes").param("since", token).accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk()).andReturn();
+        JSONArray deleted = new JSONObject(result.getResponse().getContentAsString()).getJSONArray("deleted");
+        List<Long> deletedIds = new ArrayList<>();
+        for (int i = 0; i < deleted.length(); i++) {
+            deletedIds.add(deleted.getLong(i));
+        }
+        assertEquals(tasks.size(), deletedIds.size());
+        for (MaintenanceTask task : tasks) {
+            assertTrue(deletedIds.contains(task.getId()));
+        }
+    }
+
+    @Test
+    public void getTaskChangesAfterPruning() throws Exception {
+        MvcResult result = mvc.perform(MockMvcRequestBuilders.get(API_TASKS + "/changes").accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk()).andReturn();
+        String oldToken = new JSONObject(result.getResponse().getContentAsString()).getString("token");
+        taskRepository.delete(createMaintenanceTask(19L, TaskStatus.OPEN, TaskSeverity.CRITICAL));
+        MaintenanceTask deleted = createMaintenanceTask(19L, TaskStatus.OPEN, TaskSeverity.CRITICAL);
+        result = mvc.perform(MockMvcRequestBuilders.get(API_TASKS + "/changes").param("since", oldToken).accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk()).andReturn();
+        String token = new JSONObject(result.getResponse().getContentAsString()).getString("token");
+        taskRepository.delete(deleted);
+
+        // Everything deleted so far is expired, only the newest tombstone is kept
+        tombstonePruner.prune(LocalDateTime.now().plusSeconds(1));
+        assertEquals(1, jdbc.queryForObject("select count(*) from task_tombstone", Integer.class));
+
+        // The old token lost the first delete to pruning, so its client gets everything
+        result = mvc.perform(MockMvcRequestBuilders.get(API_TASKS + "/changes").param("since", oldToken).accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk()).andReturn();
+        assertTrue(new JSONObject(result.getResponse().getContentAsString()).getBoolean("full"));
+
+        // The newer token still gets the kept delete
+        result = mvc.perform(MockMvcRequestBuilders.get(API_TASKS + "/changes").param("since", token).accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk()).andReturn();
+        JSONObject changes = new JSONObject(result.getResponse().getContentAsString());
+        assertFalse(changes.getBoolean("full"));
+        assertEquals(1, changes.getJSONArray("deleted").length());
+        assertEquals((long) deleted.getId(), changes.getJSONArray("deleted").getLong(0));
+    }
+
+    @Test
+    public void streamTasksReactively() throws Exception {
+        MaintenanceTask critical = createMaintenanceTask(22L, TaskStatus.OPEN, TaskSeverity.CRITICAL);
+        MaintenanceTask unimportant = createMaintenanceTask(22L, TaskStatus.OPEN, TaskSeverity.UNIMPORTANT);
+        int expected = findTasks(22L, TaskStatus.OPEN, null).size();
+        MvcResult result = mvc.perform(MockMvcRequestBuilders.get(API_TASKS + "/stream").param("deviceId", "22").param("status", "OPEN")
+                .accept(MediaType.APPLICATION_NDJSON))
+            .andExpect(request().asyncStarted()).andReturn();
+        // Tasks are written as R2DBC emits them, wait for all of them
+        for (int i = 0; i < 50 && result.getResponse().getContentAsString().split("\n").length < expected; i++) {
+            Thread.sleep(100);
+        }
+        String[] lines = result.getResponse().getContentAsString().split("\n");
+        assertEquals(expected, lines.length);
+        // One task per line, in the listing order: critical first
+        List<Long> ids = new ArrayList<>();
+        for (String line : lines) {
+            JSONObject task = new JSONObject(line);
+            assertEquals(22, task.getLong("deviceId"));
+            assertEquals("OPEN", task.getString("status"));
+            ids.add(task.getLong("id"));
+        }
+        assertTrue(ids.indexOf(critical.getId()) < ids.indexOf(unimportant.getId()));
+
+        mvc.perform(MockMvcRequestBuilders.get(API_TASKS + "/stream").param("status", "AJAR").accept(MediaType.APPLICATION_NDJSON))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void recordsQueryMetrics() throws Exception {
+        // Stats aren't cached, so every request runs its query
+        long before = queryTimerCount("count", "deviceId+severity");
+        mvc.perform(MockMvcRequestBuilders.get(API_TASKS + "/stats").param("deviceId", "1").param("severity", "CRITICAL")
+            .param("groupBy", "status").accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk());
+        assertEquals(before + 1, queryTimerCount("count", "deviceId+severity"));
+        assertNotNull(meterRegistry.find(TaskQueryMetrics.RESULT_SIZE)
+            .tags(TaskQueryMetrics.TAG_OPERATION, "count", TaskQueryMetrics.TAG_FILTERS, "deviceId+severity").summary());
+
+        // The endpoint and repository timers and the Hibernate statistics are Spring Boot's own
+        assertNotNull(meterRegistry.find("http.server.requests").tag("uri", "/api/tasks/stats").timer());
+        assertNotNull(meterRegistry.find("spring.data.repository.invocations").tag("method", "countTasks").timer());
+        assertNotNull(meterRegistry.find("hibernate.query.executions").meter());
+        assertNotNull(meterRegistry.find("hibernate.entities.loads").meter());
+        assertNotNull(meterRegistry.find("hibernate.flushes").meter());
+    }
+
+    private long queryTimerCount(String operation, String filters) {
+        Timer timer = meterRegistry.find(TaskQueryMetrics.QUERY_TIMER)
+            .tags(TaskQueryMetrics.TAG_OPERATION, operation, TaskQueryMetrics.TAG_FILTERS, filters).timer();
+        return timer == null ? 0 : timer.count();
+    }
+
     @Test
     public void getMaintenanceTasksNoSuchDevice() throws Exception {
         // Get a task for a device that doesn't exist.
@@ -474,6 +821,125 @@ public class MaintenanceTaskControllerTest {
         assertEquals(registered, task.getRegistered().toString());
     }
 
+    @Test
+    public void getTasksPaginated() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            createMaintenanceTask(5L, TaskStatus.OPEN, TaskSeverity.IMPORTANT);
+        }
+        MvcResult result = mvc.perform(MockMvcRequestBuilders.get(API_TASKS).param("deviceId", "5").param("limit", "2")
+                .accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk()).andReturn();
+        JSONObject response = new JSONObject(result.getResponse().getContentAsString());
+        assertEquals(2, getTaskArray(response).length());
+        // The next link keeps the filters and the limit
+        String next = response.getJSONObject("_links").getJSONObject("next").getString("href");
+        assertTrue(next.contains("deviceId=5"));
+        assertTrue(next.contains("limit=2"));
+        assertTrue(next.contains("cursor="));
+        assertFalse(response.getJSONObject("_links").has("prev"));
+    }
+
+    @Test
+    public void getTasksPaginatedNothingMatches() throws Exception {
+        // Every status negated away: an empty page, without links to pages that can't be parsed back
+        createMaintenanceTask(5L, TaskStatus.OPEN, TaskSeverity.IMPORTANT);
+        MvcResult result = mvc.perform(MockMvcRequestBuilders.get(API_TASKS).param("status", "!OPEN,CLOSED").param("limit", "2")
+                .accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk()).andReturn();
+        JSONObject response = new JSONObject(result.getResponse().getContentAsString());
+        assertFalse(response.has("_embedded"));
+        assertFalse(response.getJSONObject("_links").has("next"));
+        assertFalse(response.getJSONObject("_links").has("prev"));
+    }
+
+    @Test
+    public void getTasksBadLimit() throws Exception {
+        mvc.perform(MockMvcRequestBuilders.get(API_TASKS).param("limit", "-1").accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void deleteTasksWithLimit() throws Exception {
+        // Pagination parameters are not accepted by DELETE
+        MaintenanceTask task = createMaintenanceTask(3L, TaskStatus.CLOSED, TaskSeverity.UNIMPORTANT);
+        mvc.perform(MockMvcRequestBuilders.delete(API_TASKS).param("limit", "1").accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isBadRequest());
+        assertTrue(taskRepository.existsById(task.getId()));
+    }
+
+    @Test
+    public void exportTasks() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            createMaintenanceTask(6L, TaskStatus.CLOSED, TaskSeverity.CRITICAL);
+        }
+        MvcResult result = mvc.perform(MockMvcRequestBuilders.get(API_TASKS + "/export").param("deviceId", "6").param("status", "CLOSED"))
+            .andExpect(request().asyncStarted()).andReturn();
+        result = mvc.perform(MockMvcRequestBuilders.asyncDispatch(result))
+            .andExpect(status().isOk()).andReturn();
+        // One task object per line
+        String[] lines = result.getResponse().getContentAsString().split("\n");
+        assertTrue(lines.length >= 3);
+        for (String line : lines) {
+            JSONObject taskObj = new JSONObject(line);
+            assertEquals(6L, taskObj.getLong("deviceId"));
+            assertEquals("CLOSED", taskObj.getString("status"));
+        }
+    }
+
+    @Test
+    public void exportTasksBadParam() throws Exception {
+        mvc.perform(MockMvcRequestBuilders.get(API_TASKS + "/export").param("status", "lulz"))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void addTaskBatch() throws Exception {
+        // A good task, a task for a device that doesn't exist, and a task with a bad status
+        String json = "[{\"deviceId\": 1, \"status\": \"OPEN\", \"severity\": \"CRITICAL\", \"description\": \"Batch task\"},"
+            + "{\"deviceId\": 123456789, \"status\": \"OPEN\", \"severity\": \"CRITICAL\", \"description\": \"Batch task\"},"
+            + "{\"deviceId\": 1, \"status\": \"lulz\", \"severity\": \"CRITICAL\", \"description\": \"Batch task\"}]";
+        MvcResult result = mvc.perform(MockMvcRequestBuilders.post(API_TASKS + "/batch").accept(MediaType.APPLICATION_JSON)
+                .contentType(MediaType.APPLICATION_JSON).content(json))
+            .andExpect(status().isOk()).andReturn();
+        JSONObject response = new JSONObject(result.getResponse().getContentAsString());
+        assertEquals(1, response.getInt("created"));
+        assertEquals(2, response.getInt("failed"));
+        JSONArray results = response.getJSONArray("results");
+        assertEquals(201, results.getJSONObject(0).getInt("status"));
+        assertEquals(404, results.getJSONObject(1).getInt("status"));
+        assertEquals(400, results.getJSONObject(2).getInt("status"));
+        // The created task is really there
+        Long taskId = results.getJSONObject(0).getLong("id");
+        assertEquals("Batch task", taskRepository.findById(taskId).get().getDescription());
+    }
+
+    @Test
+    public void addTaskBatchNdjson() throws Exception {
+        String ndjson = "{\"deviceId\": 2, \"status\": \"CLOSED\", \"severity\": \"IMPORTANT\", \"description\": \"<b>first</b>\"}\n"
+            + "{\"deviceId\": 2, \"status\": \"OPEN\", \"severity\": \"UNIMPORTANT\", \"description\": \"second\", \"registered\": \"2022-09-01T10:05:35\"}\n";
+        MvcResult result = mvc.perform(MockMvcRequestBuilders.post(API_TASKS + "/batch").accept(MediaType.APPLICATION_JSON)
+                .contentType(MediaType.APPLICATION_NDJSON).content(ndjson))
+            .andExpect(status().isOk()).andReturn();
+        JSONObject response = new JSONObject(result.getResponse().getContentAsString());
+        assertEquals(2, response.getInt("created"));
+        JSONArray results = response.getJSONArray("results");
+        // HTML is escaped like in the single task endpoint
+        MaintenanceTask first = taskRepository.findById(results.getJSONObject(0).getLong("id")).get();
+        assertEquals("&lt;b&gt;first&lt;/b&gt;", first.getDescription());
+        MaintenanceTask second = taskRepository.findById(results.getJSONObject(1).getLong("id")).get();
+        assertEquals("2022-09-01T10:05:35", second.getRegistered().toString());
+    }
+
+    @Test
+    public void addTaskBatchMalformedBody() throws Exception {
+        mvc.perform(MockMvcRequestBuilders.post(API_TASKS + "/batch").accept(MediaType.APPLICATION_JSON)
+                .contentType(MediaType.APPLICATION_JSON).content("[{\"deviceId\": 1,"))
+            .andExpect(status().isBadRequest());
+        mvc.perform(MockMvcRequestBuilders.post(API_TASKS + "/batch").accept(MediaType.APPLICATION_JSON)
+                .contentType(MediaType.APPLICATION_JSON).content("[]"))
+            .andExpect(status().isBadRequest());
+    }
+
     // PUT
 
     @Test
@@ -491,6 +957,32 @@ public class MaintenanceTaskControllerTest {
         assertEquals(TaskStatus.CLOSED, modifiedTask.getStatus());
     }
 
+    @Test
+    public void modifyTaskWritesOnlySentProperties() throws Exception {
+        MaintenanceTask task = createMaintenanceTask(20L, TaskStatus.OPEN, TaskSeverity.CRITICAL);
+        long createdSeq = jdbc.queryForObject("select change_seq from maintenance_task where id = ?", Long.class, task.getId());
+        MvcResult result = mvc.perform(MockMvcRequestBuilders.patch(String.format(API_TASKID, task.getId())).accept(MediaType.APPLICATION_JSON)
+                .contentType(MediaType.APPLICATION_JSON).content("{\"severity\": \"UNIMPORTANT\"}"))
+            .andExpect(status().isOk()).andReturn();
+        // The response has the whole task, with the properties that weren't sent as they were
+        JSONObject json = new JSONObject(result.getResponse().getContentAsString());
+        assertEquals("UNIMPORTANT", json.getString("severity"));
+        assertEquals("OPEN", json.getString("status"));
+        assertEquals(task.getDescription(), json.getString("description"));
+
+        // The database, the task cache and the counters all have the new severity.
+        // Read the row itself first: the cache holds the patched task whether or not the update reached the table.
+        Map<String, Object> row = jdbc.queryForMap("select severity, status, description, change_seq from maintenance_task where id = ?", task.getId());
+        assertEquals(TaskSeverity.UNIMPORTANT.getRank(), ((Number) row.get("SEVERITY")).intValue());
+        assertEquals(TaskStatus.OPEN.ordinal(), ((Number) row.get("STATUS")).intValue());
+        assertEquals(task.getDescription(), row.get("DESCRIPTION"));
+        assertTrue(((Number) row.get("CHANGE_SEQ")).longValue() > createdSeq);
+        List<MaintenanceTask> stored = findTasks(20L, TaskStatus.OPEN, TaskSeverity.UNIMPORTANT);
+        assertTrue(stored.stream().anyMatch(t -> t.getId().equals(task.getId())));
+        assertEquals(TaskSeverity.UNIMPORTANT, taskRepository.findById(task.getId()).get().getSeverity());
+        assertEquals(findTasks(20L, TaskStatus.OPEN, TaskSeverity.CRITICAL).size(), openCriticalCount(20L));
+    }
+
     @Test
     public void modifyTaskNotFound() throws Exception {
         // Try to modify a non existent task. Should return 404
@@ -527,13 +1019,15 @@ public class MaintenanceTaskControllerTest {
     }
 
     @Test
-    public void modifyTaskWrongEndpoint() throws Exception {
-        // Make the PUT request on /api/tasks/create
-        // Should return 400 bad request because it tries to convert "create" into an integer as a taskId
+    public void modifyTasksWithoutFilter() throws Exception {
+        // PATCH on /api/tasks is a bulk update, and without a filter it would update every task.
+        // Should return 400 bad request, and change nothing.
+        MaintenanceTask task = createMaintenanceTask(1L, TaskStatus.OPEN, TaskSeverity.IMPORTANT);
         String json = "{\"description\": \"testing\", \"deviceId\": 1, \"severity\": \"IMPORTANT\", \"status\": \"OPEN\"}"; 
         mvc.perform(MockMvcRequestBuilders.patch(API_TASKS).accept(MediaType.APPLICATION_JSON)
                 .contentType(MediaType.APPLICATION_JSON).content(json))
-            .andExpect(status().isMethodNotAllowed());
+            .andExpect(status().isBadRequest());
+        assertEquals(task.getDescription(), jdbc.queryForObject("select description from maintenance_task where id = ?", String.class, task.getId()));
     }
     
     @Test
@@ -695,6 +1189,31 @@ public class MaintenanceTaskControllerTest {
             .andExpect(status().isBadRequest());
     }
 
+    @Test
+    public void modifyTasksByFilter() throws Exception {
+        createMaintenanceTask(21L, TaskStatus.OPEN, TaskSeverity.CRITICAL);
+        createMaintenanceTask(21L, TaskStatus.OPEN, TaskSeverity.IMPORTANT);
+        createMaintenanceTask(21L, TaskStatus.CLOSED, TaskSeverity.CRITICAL);
+        int open = findTasks(21L, TaskStatus.OPEN, null).size();
+
+        // Close every open task of the device
+        MvcResult result = mvc.perform(MockMvcRequestBuilders.patch(API_TASKS).param("deviceId", "21").param("status", "OPEN")
+                .accept(MediaType.APPLICATION_JSON).contentType(MediaType.APPLICATION_JSON).content("{\"status\": \"CLOSED\"}"))
+            .andExpect(status().isOk()).andReturn();
+        assertEquals(String.format("Updated %d tasks", open), result.getResponse().getContentAsString());
+        assertEquals(0, findTasks(21L, TaskStatus.OPEN, null).size());
+        assertEquals(0, openCriticalCount(21L));
+
+        // The body is validated once, before anything is updated
+        mvc.perform(MockMvcRequestBuilders.patch(API_TASKS).param("deviceId", "21").accept(MediaType.APPLICATION_JSON)
+                .contentType(MediaType.APPLICATION_JSON).content("{\"status\": \"HALF-OPEN\"}"))
+            .andExpect(status().isBadRequest());
+        mvc.perform(MockMvcRequestBuilders.patch(API_TASKS).param("limit", "1").accept(MediaType.APPLICATION_JSON)
+                .contentType(MediaType.APPLICATION_JSON).content("{\"status\": \"OPEN\"}"))
+            .andExpect(status().isBadRequest());
+        assertEquals(0, findTasks(21L, TaskStatus.OPEN, null).size());
+    }
+
     // DELETE
 
     @Test
@@ -744,12 +1263,12 @@ public class MaintenanceTaskControllerTest {
             createMaintenanceTask(1L, TaskStatus.CLOSED, TaskSeverity.IMPORTANT);
         }
         // Assert the existence of the newly created tasks
-        assertFalse(taskRepository.findAllByDeviceId(1L).isEmpty());
+        assertFalse(findTasks(1L, null, null).isEmpty());
         // Now delete
         mvc.perform(MockMvcRequestBuilders.delete(API_TASKS).param("deviceId", "1").accept(MediaType.APPLICATION_JSON))
             .andExpect(status().isOk());
         // Assert the deletion
-        assertTrue(taskRepository.findAllByDeviceId(1L).isEmpty());
+        assertTrue(findTasks(1L, null, null).isEmpty());
     }
 
     @Test
@@ -760,13 +1279,13 @@ public class MaintenanceTaskControllerTest {
             createMaintenanceTask(1L, TaskStatus.CLOSED, TaskSeverity.IMPORTANT);
         } 
         // Assert the existence of the newly created tasks
-        assertFalse(taskRepository.findAllByDeviceIdAndStatusAndSeverity(1L, TaskStatus.CLOSED, TaskSeverity.IMPORTANT).isEmpty());
+        assertFalse(findTasks(1L, TaskStatus.CLOSED, TaskSeverity.IMPORTANT).isEmpty());
         // Delete
         mvc.perform(MockMvcRequestBuilders.delete(API_TASKS).param("deviceId", "1").param("status", "CLOSED").param("severity", "IMPORTANT").
                 accept(MediaType.APPLICATION_JSON))
             .andExpect(status().isOk());
         // Assert the deletion
-        assertTrue(taskRepository.findAllByDeviceIdAndStatusAndSeverity(1L, TaskStatus.CLOSED, TaskSeverity.IMPORTANT).isEmpty());
+        assertTrue(findTasks(1L, TaskStatus.CLOSED, TaskSeverity.IMPORTANT).isEmpty());
     }
 
     @Test
@@ -777,13 +1296,13 @@ public class MaintenanceTaskControllerTest {
             createMaintenanceTask(1L, TaskStatus.CLOSED, TaskSeverity.IMPORTANT);
         } 
         // Assert the existence of the newly created tasks
-        assertFalse(taskRepository.findAllByDeviceIdAndStatus(1L, TaskStatus.CLOSED).isEmpty());
+        assertFalse(findTasks(1L, TaskStatus.CLOSED, null).isEmpty());
         // Delete
         mvc.perform(MockMvcRequestBuilders.delete(API_TASKS).param("deviceId", "1").param("status", "CLOSED").
                 accept(MediaType.APPLICATION_JSON))
             .andExpect(status().isOk());
         // Assert the deletion
-        assertTrue(taskRepository.findAllByDeviceIdAndStatus(1L, TaskStatus.CLOSED).isEmpty());
+        assertTrue(findTasks(1L, TaskStatus.CLOSED, null).isEmpty());
     }
 
     @Test
@@ -794,13 +1313,13 @@ public class MaintenanceTaskControllerTest {
             createMaintenanceTask(1L, TaskStatus.CLOSED, TaskSeverity.IMPORTANT);
         } 
         // Assert the existence of the newly created tasks
-        assertFalse(taskRepository.findAllByDeviceIdAndSeverity(1L, TaskSeverity.IMPORTANT).isEmpty());
+        assertFalse(findTasks(1L, null, TaskSeverity.IMPORTANT).isEmpty());
         // Delete
         mvc.perform(MockMvcRequestBuilders.delete(API_TASKS).param("deviceId", "1").param("severity", "IMPORTANT").
                 accept(MediaType.APPLICATION_JSON))
             .andExpect(status().isOk());
         // Assert the deletion
-        assertTrue(taskRepository.findAllByDeviceIdAndSeverity(1L, TaskSeverity.IMPORTANT).isEmpty());
+        assertTrue(findTasks(1L, null, TaskSeverity.IMPORTANT).isEmpty());
     }
 
     @Test
@@ -811,13 +1330,13 @@ public class MaintenanceTaskControllerTest {
             createMaintenanceTask(1L, TaskStatus.CLOSED, TaskSeverity.IMPORTANT);
         } 
         // Assert the existence of the newly created tasks
-        assertFalse(taskRepository.findAllByStatusAndSeverity(TaskStatus.CLOSED, TaskSeverity.IMPORTANT).isEmpty());
+        assertFalse(findTasks(null, TaskStatus.CLOSED, TaskSeverity.IMPORTANT).isEmpty());
         // Delete
         mvc.perform(MockMvcRequestBuilders.delete(API_TASKS).param("status", "CLOSED").param("severity", "IMPORTANT").
                 accept(MediaType.APPLICATION_JSON))
             .andExpect(status().isOk());
         // Assert the deletion
-        assertTrue(taskRepository.findAllByStatusAndSeverity(TaskStatus.CLOSED, TaskSeverity.IMPORTANT).isEmpty());
+        assertTrue(findTasks(null, TaskStatus.CLOSED, TaskSeverity.IMPORTANT).isEmpty());
     }
 
     @Test
@@ -828,13 +1347,13 @@ public class MaintenanceTaskControllerTest {
             createMaintenanceTask(1L, TaskStatus.CLOSED, TaskSeverity.IMPORTANT);
         }
         // Assert the existence of the newly created tasks
-        assertFalse(taskRepository.findAllByStatus(TaskStatus.CLOSED).isEmpty());
+        assertFalse(findTasks(null, TaskStatus.CLOSED, null).isEmpty());
         // Delete
         mvc.perform(MockMvcRequestBuilders.delete(API_TASKS).param("status", "CLOSED").
                 accept(MediaType.APPLICATION_JSON))
             .andExpect(status().isOk());
         // Assert the deletion
-        assertTrue(taskRepository.findAllByStatus(TaskStatus.CLOSED).isEmpty());
+        assertTrue(findTasks(null, TaskStatus.CLOSED, null).isEmpty());
     }
 
     @Test
@@ -845,13 +1364,38 @@ public class MaintenanceTaskControllerTest {
             createMaintenanceTask(1L, TaskStatus.CLOSED, TaskSeverity.IMPORTANT);
         } 
         // Assert the existence of the newly created tasks
-        assertFalse(taskRepository.findAllBySeverity(TaskSeverity.IMPORTANT).isEmpty());
+        assertFalse(findTasks(null, null, TaskSeverity.IMPORTANT).isEmpty());
         // Delete
         mvc.perform(MockMvcRequestBuilders.delete(API_TASKS).param("severity", "IMPORTANT").
                 accept(MediaType.APPLICATION_JSON))
             .andExpect(status().isOk());
         // Assert the deletion
-        assertTrue(taskRepository.findAllBySeverity(TaskSeverity.IMPORTANT).isEmpty());
+        assertTrue(findTasks(null, null, TaskSeverity.IMPORTANT).isEmpty());
+    }
+
+    @Test
+    public void deleteTasksByRegisteredWindow() throws Exception {
+        // Delete the tasks registered in a time window, and nothing else
+        MaintenanceTask inWindow = taskRepository.save(new MaintenanceTask(1L, TaskSeverity.CRITICAL, TaskStatus.CLOSED, "Old task",
+            LocalDateTime.of(2002, 6, 1, 8, 0)));
+        MaintenanceTask outside = createMaintenanceTask(1L, TaskStatus.CLOSED, TaskSeverity.CRITICAL);
+        mvc.perform(MockMvcRequestBuilders.delete(API_TASKS).param("registeredFrom", "2002-06-01").param("registeredTo", "2002-06-02")
+                .accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk());
+        assertFalse(taskRepository.existsById(inWindow.getId()));
+        assertTrue(taskRepository.existsById(outside.getId()));
+    }
+
+    @Test
+    public void cachedTaskIsEvictedByBulkDelete() throws Exception {
+        // Read the task once so it's cached, then delete it through a filter: it must be gone, not served from the cache
+        MaintenanceTask task = createMaintenanceTask(12L, TaskStatus.OPEN, TaskSeverity.IMPORTANT);
+        mvc.perform(MockMvcRequestBuilders.get(String.format(API_TASKID, task.getId())).accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk());
+        mvc.perform(MockMvcRequestBuilders.delete(API_TASKS).param("deviceId", "12").accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk());
+        mvc.perform(MockMvcRequestBuilders.get(String.format(API_TASKID, task.getId())).accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isNotFound());
     }
 
     @Test
@@ -885,7 +1429,7 @@ public class MaintenanceTaskControllerTest {
         mvc.perform(MockMvcRequestBuilders.delete(API_TASKS).param("deviceId", "2").param("lolshit", "lulzies").accept(MediaType.APPLICATION_JSON))
             .andExpect(status().isBadRequest());
         // Assert that no tasks were deleted and that our created task specifically still exists
-        assertFalse(taskRepository.findAllByDeviceId(2L).isEmpty());
+        assertFalse(findTasks(2L, null, null).isEmpty());
         assertTrue(taskRepository.existsById(task.getId()));
     }
 
@@ -897,7 +1441,7 @@ public class MaintenanceTaskControllerTest {
         mvc.perform(MockMvcRequestBuilders.delete(API_TASKS).param("deviceId", "1").param("status", "FUCKITHAHAHAHAHA").accept(MediaType.APPLICATION_JSON))
             .andExpect(status().isBadRequest());
         // Assert that no tasks for device ID 1 were deleted
-        assertFalse(taskRepository.findAllByDeviceId(1L).isEmpty());
+        assertFalse(findTasks(1L, null, null).isEmpty());
         // Assert that our newly created task still exists
         assertTrue(taskRepository.existsById(task.getId()));
     }
@@ -909,6 +1453,19 @@ public class MaintenanceTaskControllerTest {
             .andExpect(status().isBadRequest());
     }
     
+    @Test
+    public void deleteTasksReportsCount() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            createMaintenanceTask(11L, TaskStatus.OPEN, TaskSeverity.UNIMPORTANT);
+        }
+        int matching = findTasks(11L, TaskStatus.OPEN, null).size();
+        MvcResult result = mvc.perform(MockMvcRequestBuilders.delete(API_TASKS).param("deviceId", "11").param("status", "OPEN")
+                .accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk()).andReturn();
+        assertEquals(String.format("Deleted %d tasks", matching), result.getResponse().getContentAsString());
+        assertTrue(findTasks(11L, TaskStatus.OPEN, null).isEmpty());
+    }
+
     @Test
     public void deleteTasksDeviceNotFound() throws Exception {
         // Should return isOk(), even though nothing happens
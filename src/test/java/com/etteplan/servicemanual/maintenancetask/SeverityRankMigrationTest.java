@@ -0,0 +1,50 @@
+package com.etteplan.servicemanual.maintenancetask;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.sql.Types;
+import java.util.List;
+
+public class SeverityRankMigrationTest {
+
+    private DriverManagerDataSource dataSource(String name) {
+        return new DriverManagerDataSource(String.format("jdbc:h2:mem:%s;DB_CLOSE_DELAY=-1", name));
+    }
+
+    @Test
+    public void migratesSeverityNamesToRanks() throws Exception {
+        // A table as the old schema created it, severity stored as the enum name
+        DriverManagerDataSource dataSource = dataSource("severitymigration");
+        JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        jdbc.execute("create table maintenance_task (id bigint primary key, device_id bigint not null, "
+            + "severity varchar(255) not null, status integer not null)");
+        jdbc.execute("create index idx_task_listing on maintenance_task (severity, id)");
+        jdbc.update("insert into maintenance_task values (1, 1, 'CRITICAL', 0), (2, 1, 'IMPORTANT', 0), (3, 1, 'UNIMPORTANT', 1)");
+
+        new SeverityRankMigration(dataSource).afterPropertiesSet();
+
+        List<Integer> ranks = jdbc.queryForList("select severity from maintenance_task order by id", Integer.class);
+        assertEquals(List.of(1, 2, 3), ranks);
+        int type = jdbc.queryForObject("select data_type from information_schema.columns "
+            + "where table_name = 'MAINTENANCE_TASK' and column_name = 'SEVERITY'", Integer.class);
+        assertEquals(Types.TINYINT, type);
+        // The old index is gone, Hibernate recreates it on the new column
+        assertEquals(0, jdbc.queryForObject("select count(*) from information_schema.indexes where index_name = 'IDX_TASK_LISTING'", Integer.class));
+
+        // Running it again on a migrated table changes nothing
+        new SeverityRankMigration(dataSource).afterPropertiesSet();
+        assertEquals(ranks, jdbc.queryForList("select severity from maintenance_task order by id", Integer.class));
+    }
+
+    @Test
+    public void leavesNewDatabaseAlone() throws Exception {
+        // No table yet: Hibernate creates it with the numeric column itself
+        DriverManagerDataSource dataSource = dataSource("severitymigrationempty");
+        new SeverityRankMigration(dataSource).afterPropertiesSet();
+        assertEquals(0, new JdbcTemplate(dataSource).queryForObject(
+            "select count(*) from information_schema.tables where table_name = 'MAINTENANCE_TASK'", Integer.class));
+    }
+}
@@ -0,0 +1,43 @@
+package com.etteplan.servicemanual.maintenancetask;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Optional;
+
+/* A MaintenanceTaskRepository that never touches a database, for the benchmarks of the code around it.
+ * Queries find nothing, counts are zero, and save returns the task it was given. */
+
+final class StubTaskRepository {
+
+    // Private constructor because we want a static class
+    private StubTaskRepository() {}
+
+    static MaintenanceTaskRepository create() {
+        return (MaintenanceTaskRepository) Proxy.newProxyInstance(MaintenanceTaskRepository.class.getClassLoader(),
+            new Class<?>[] { MaintenanceTaskRepository.class }, (proxy, method, args) -> {
+                if (method.getName().equals("save")) {
+                    return args[0];
+                }
+                if (method.getName().equals("toString")) {
+                    return "StubTaskRepository";
+                }
+                Class<?> type = method.getReturnType();
+                if (List.class.isAssignableFrom(type)) {
+                    return List.of();
+                }
+                if (type == Optional.class) {
+                    return Optional.empty();
+                }
+                if (type == int.class) {
+                    return 0;
+                }
+                if (type == long.class) {
+                    return 0L;
+                }
+                if (type == boolean.class) {
+                    return false;
+                }
+                return null;
+            });
+    }
+}
@@ -0,0 +1,75 @@
+package com.etteplan.servicemanual.maintenancetask;
+
+import com.etteplan.servicemanual.factorydevice.FactoryDeviceIndex;
+import com.etteplan.servicemanual.factorydevice.FactoryDeviceNotFoundException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+/* JMH benchmark of the CPU side of a PATCH: TaskEditor.parseChanges validating the body,
+ * and TaskEditor.applyChanges applying it to a copy of the task. No database is involved, and devices 1 to 100 exist.
+ * Besides valid bodies, it measures the invalid ones, which end in a RequestBodyException
+ * or FactoryDeviceNotFoundException, so the cost of creating those exceptions is included.
+ *
+ * Run all benchmarks with "mvn -Pbenchmarks test", or only this one with
+ *   mvn -Pbenchmarks test -Dbenchmark.include=TaskEditorBenchmark */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TaskEditorBenchmark {
+
+    private static final Map<String, Map<String, String>> BODIES = Map.of(
+        "description", Map.of("description", "Replaced a <b>transistor</b>"),
+        "everything", Map.of("deviceId", "42", "status", "CLOSED", "severity", "UNIMPORTANT", "description", "Cleaning",
+            "registered", "2022-08-29T15:10:06"),
+        "badStatus", Map.of("status", "AJAR"),
+        "badRegistered", Map.of("registered", "yesterday"),
+        "unknownProperty", Map.of("colour", "red"),
+        "noSuchDevice", Map.of("deviceId", "123456789"));
+
+    @Param({"description", "everything", "badStatus", "badRegistered", "unknownProperty", "noSuchDevice"})
+    public String body;
+
+    private Map<String, String> requestBody;
+    private MaintenanceTask task;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        FactoryDeviceIndex.load(LongStream.rangeClosed(1, 100).boxed().collect(Collectors.toList()));
+        requestBody = BODIES.get(body);
+        task = new MaintenanceTask(1L, TaskSeverity.CRITICAL, TaskStatus.OPEN, "Benchmark task");
+        ReflectionTestUtils.setField(task, "id", 1L);
+    }
+
+    @Benchmark
+    public Object applyPatch() {
+        try {
+            MaintenanceTask edited = task.copy();
+            TaskEditor.applyChanges(edited, TaskEditor.parseChanges(requestBody));
+            return edited;
+        }
+        catch (RequestBodyException | FactoryDeviceNotFoundException ex) {
+            return ex;
+        }
+    }
+}
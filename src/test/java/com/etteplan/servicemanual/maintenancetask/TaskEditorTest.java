@@ -46,6 +46,11 @@ public class TaskEditorTest {
         return taskRepository.save(task);
     }
 
+    private MaintenanceTask editTask(MaintenanceTask task, Map<String, String> requestBody) throws Exception {
+        // Edits through the same path as PATCH /api/tasks/{taskId}
+        return TaskEditor.patchTask(task.getId(), requestBody);
+    }
+
     @BeforeEach
     private void setUp() {
         // Before each test, clear the parameters hashmap
@@ -56,7 +61,7 @@ public class TaskEditorTest {
     public void editTaskDescription() throws Exception {
         MaintenanceTask task = createTask(3L, TaskStatus.OPEN, TaskSeverity.IMPORTANT);
         params.put("description", "Hello!");
-        task = TaskEditor.editTask(task, params);
+        task = editTask(task, params);
         assertEquals("Hello!", task.getDescription());
     }
 
@@ -65,7 +70,7 @@ public class TaskEditorTest {
         MaintenanceTask task = createTask(3L, TaskStatus.OPEN, TaskSeverity.UNIMPORTANT);
         params.put("description", "A great description");
         params.put("status", "CLOSED");
-        task = TaskEditor.editTask(task, params);
+        task = editTask(task, params);
         assertEquals("A great description", task.getDescription());
         assertEquals(TaskStatus.CLOSED, task.getStatus());
     }
@@ -75,7 +80,7 @@ public class TaskEditorTest {
         MaintenanceTask task = createTask(3L, TaskStatus.CLOSED, TaskSeverity.CRITICAL);
         params.put("deviceId", "4");
         params.put("severity", "IMPORTANT");
-        task = TaskEditor.editTask(task, params);
+        task = editTask(task, params);
         assertEquals(4L, task.getDeviceId());
         assertEquals(TaskSeverity.IMPORTANT, task.getSeverity());
     }
@@ -88,7 +93,7 @@ public class TaskEditorTest {
         params.put("severity", "CRITICAL");
         params.put("description", "Hello world");
         params.put("registered", "2022-09-09T14:34:01");
-        task = TaskEditor.editTask(task, params);
+        task = editTask(task, params);
         // Assert equalities
         assertEquals(5L, task.getDeviceId());
         assertEquals(TaskStatus.OPEN, task.getStatus());
@@ -102,7 +107,7 @@ public class TaskEditorTest {
         MaintenanceTask task = createTask(7L, TaskStatus.OPEN, TaskSeverity.UNIMPORTANT);
         params.put("description", "");
         assertThrows(RequestBodyException.class, () -> {
-            TaskEditor.editTask(task, params);
+            editTask(task, params);
         });
     }
 
@@ -111,7 +116,7 @@ public class TaskEditorTest {
         MaintenanceTask task = createTask(7L, TaskStatus.OPEN, TaskSeverity.CRITICAL);
         params.put("description", null);
         assertThrows(RequestBodyException.class, () -> {
-            TaskEditor.editTask(task, params);
+            editTask(task, params);
         });
     }
 
@@ -120,7 +125,7 @@ public class TaskEditorTest {
         MaintenanceTask task = createTask(8L, TaskStatus.CLOSED, TaskSeverity.IMPORTANT);
         params.put("registered", "lulz");
         assertThrows(RequestBodyException.class, () -> {
-            TaskEditor.editTask(task, params);
+            editTask(task, params);
         });
     }
     
@@ -129,7 +134,7 @@ public class TaskEditorTest {
         MaintenanceTask task = createTask(8L, TaskStatus.CLOSED, TaskSeverity.IMPORTANT);
         params.put("some_unknown_param", "lulz");
         assertThrows(RequestBodyException.class, () -> {
-            TaskEditor.editTask(task, params);
+            editTask(task, params);
         });
     }  
     
@@ -138,7 +143,7 @@ public class TaskEditorTest {
         // Empty request body
         MaintenanceTask task = createTask(8L, TaskStatus.CLOSED, TaskSeverity.IMPORTANT);
         assertThrows(RequestBodyException.class, () -> {
-            TaskEditor.editTask(task, params);
+            editTask(task, params);
         });
     }  
     
@@ -147,7 +152,7 @@ public class TaskEditorTest {
         MaintenanceTask task = createTask(8L, TaskStatus.CLOSED, TaskSeverity.IMPORTANT);
         params.put("deviceId", "lulz");
         assertThrows(RequestBodyException.class, () -> {
-            TaskEditor.editTask(task, params);
+            editTask(task, params);
         });
     }
 
@@ -156,7 +161,7 @@ public class TaskEditorTest {
         MaintenanceTask task = createTask(9L, TaskStatus.CLOSED, TaskSeverity.IMPORTANT);
         params.put("status", "lulz");
         assertThrows(RequestBodyException.class, () -> {
-            TaskEditor.editTask(task, params);
+            editTask(task, params);
         });
     }
     
@@ -165,7 +170,7 @@ public class TaskEditorTest {
         MaintenanceTask task = createTask(9L, TaskStatus.CLOSED, TaskSeverity.IMPORTANT);
         params.put("severity", "lulz");
         assertThrows(RequestBodyException.class, () -> {
-            TaskEditor.editTask(task, params);
+            editTask(task, params);
         });
     }
 
@@ -175,8 +180,26 @@ public class TaskEditorTest {
         params.put("deviceId", "1");
         params.put("status", "lulzies");
         assertThrows(RequestBodyException.class, () -> {
-            TaskEditor.editTask(task, params);
+            editTask(task, params);
+        });
+    }
+
+    @Test
+    public void editTaskLeavesGivenTaskUntouched() throws Exception {
+        // The given task may be shared through the cache, so only the returned copy is edited,
+        // and a failed edit changes nothing at all
+        MaintenanceTask task = createTask(10L, TaskStatus.CLOSED, TaskSeverity.CRITICAL);
+        params.put("status", "OPEN");
+        MaintenanceTask edited = editTask(task, params);
+        assertEquals(TaskStatus.OPEN, edited.getStatus());
+        assertEquals(task.getId(), edited.getId());
+        assertEquals(TaskStatus.CLOSED, task.getStatus());
+
+        params.put("severity", "lulzies");
+        assertThrows(RequestBodyException.class, () -> {
+            editTask(edited, params);
         });
+        assertEquals(TaskSeverity.CRITICAL, edited.getSeverity());
     }
 
     @Test
@@ -184,7 +207,7 @@ public class TaskEditorTest {
         MaintenanceTask task = createTask(10L, TaskStatus.CLOSED, TaskSeverity.CRITICAL);
         params.put("deviceId", null);
         assertThrows(RequestBodyException.class, () -> {
-            TaskEditor.editTask(task, params);
+            editTask(task, params);
         });
     }
     
@@ -193,7 +216,7 @@ public class TaskEditorTest {
         MaintenanceTask task = createTask(10L, TaskStatus.CLOSED, TaskSeverity.CRITICAL);
         params.put("status", null);
         assertThrows(RequestBodyException.class, () -> {
-            TaskEditor.editTask(task, params);
+            editTask(task, params);
         });
     }
     
@@ -202,7 +225,7 @@ public class TaskEditorTest {
         MaintenanceTask task = createTask(10L, TaskStatus.CLOSED, TaskSeverity.CRITICAL);
         params.put("severity", null);
         assertThrows(RequestBodyException.class, () -> {
-            TaskEditor.editTask(task, params);
+            editTask(task, params);
         });
     }
     
@@ -211,7 +234,7 @@ public class TaskEditorTest {
         MaintenanceTask task = createTask(11L, TaskStatus.CLOSED, TaskSeverity.CRITICAL);
         params.put("registered", null);
         assertThrows(RequestBodyException.class, () -> {
-            TaskEditor.editTask(task, params);
+            editTask(task, params);
         });
     }
 }
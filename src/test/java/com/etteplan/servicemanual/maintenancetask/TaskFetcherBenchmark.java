@@ -0,0 +1,64 @@
+package com.etteplan.servicemanual.maintenancetask;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/* JMH benchmark of TaskFetcher.fetchTasks without a database: parsing and validating the query parameters,
+ * building the TaskQuery, and handing it to the repository, which is a stub that finds nothing (StubTaskRepository).
+ * Each query is one shape of query string, from no filters to lists, ranges and negation,
+ * plus a bad one, which measures the QueryParameterException path.
+ *
+ * Run all benchmarks with "mvn -Pbenchmarks test", or only this one with
+ *   mvn -Pbenchmarks test -Dbenchmark.include=TaskFetcherBenchmark */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TaskFetcherBenchmark {
+
+    private static final Map<String, Map<String, String>> QUERIES = Map.of(
+        "none", Map.of(),
+        "deviceId", Map.of("deviceId", "17"),
+        "deviceId+status+severity", Map.of("deviceId", "17", "status", "OPEN", "severity", "CRITICAL"),
+        "lists", Map.of("deviceId", "1,5,9,13,17,21,25,29", "severity", "CRITICAL,IMPORTANT"),
+        "ranges+negation", Map.of("deviceId", "!1..5,10..20,50..", "status", "!CLOSED"),
+        "window", Map.of("registeredFrom", "2022-01-01", "registeredTo", "2022-02-01T12:00:00"),
+        "badStatus", Map.of("deviceId", "17", "status", "AJAR"));
+
+    @Param({"none", "deviceId", "deviceId+status+severity", "lists", "ranges+negation", "window", "badStatus"})
+    public String query;
+
+    private Map<String, String> parameters;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        TaskFetcher.setTaskRepository(StubTaskRepository.create());
+        parameters = QUERIES.get(query);
+    }
+
+    @Benchmark
+    public Object fetchTasks() {
+        try {
+            return TaskFetcher.fetchTasks(parameters);
+        }
+        catch (QueryParameterException ex) {
+            return ex;
+        }
+    }
+}
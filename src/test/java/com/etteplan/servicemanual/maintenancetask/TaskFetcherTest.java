@@ -6,7 +6,9 @@ import static org.junit.jupiter.api.Assertions.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 
+import java.time.LocalDateTime;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.ArrayList;
 import java.util.Random;
@@ -200,4 +202,303 @@ public class TaskFetcherTest {
             TaskFetcher.fetchTasks(params);
         });
     }
+
+    @Test
+    public void fetchTaskPageLimit() throws Exception {
+        createTasks(3, 3L, TaskStatus.OPEN, TaskSeverity.CRITICAL);
+        params.put("deviceId", "3");
+        params.put("limit", "2");
+        TaskPage<MaintenanceTask> page = TaskFetcher.fetchTaskPage(params);
+        assertEquals(2, page.getTasks().size());
+        assertNotNull(page.getNextCursor());
+        // First page, nothing before it
+        assertNull(page.getPrevCursor());
+    }
+
+    @Test
+    public void fetchTaskPageFollowCursors() throws Exception {
+        createTasks(5, 8L, TaskStatus.CLOSED, TaskSeverity.UNIMPORTANT);
+        params.put("deviceId", "8");
+        List<MaintenanceTask> all = TaskFetcher.fetchTasks(params);
+        // Walk forward through the pages, the concatenation must match the unpaged listing
+        params.put("limit", "2");
+        List<Long> pagedIds = new ArrayList<>();
+        TaskPage<MaintenanceTask> page = TaskFetcher.fetchTaskPage(params);
+        while (true) {
+            for (MaintenanceTask task : page.getTasks()) {
+                pagedIds.add(task.getId());
+            }
+            if (page.getNextCursor() == null) {
+                break;
+            }
+            params.put("cursor", page.getNextCursor());
+            page = TaskFetcher.fetchTaskPage(params);
+        }
+        // Every task exactly once. (The unpaged listing has no id tie-breaker, so only compare the contents.)
+        assertEquals(all.size(), pagedIds.size());
+        assertEquals(all.size(), new HashSet<>(pagedIds).size());
+        for (MaintenanceTask task : all) {
+            assertTrue(pagedIds.contains(task.getId()));
+        }
+        // And one step back from the last page gives the tasks right before it
+        params.put("cursor", page.getPrevCursor());
+        TaskPage<MaintenanceTask> previous = TaskFetcher.fetchTaskPage(params);
+        assertEquals(2, previous.getTasks().size());
+        int firstOfLastPage = pagedIds.indexOf(page.getTasks().get(0).getId());
+        assertEquals(pagedIds.get(firstOfLastPage - 1), previous.getTasks().get(1).getId());
+        assertNotNull(previous.getNextCursor());
+    }
+
+    @Test
+    public void fetchTaskPageUnpaged() throws Exception {
+        createTasks(2, 9L, TaskStatus.OPEN, TaskSeverity.IMPORTANT);
+        params.put("deviceId", "9");
+        TaskPage<MaintenanceTask> page = TaskFetcher.fetchTaskPage(params);
+        assertEquals(TaskFetcher.fetchTasks(params).size(), page.getTasks().size());
+        assertNull(page.getNextCursor());
+        assertNull(page.getPrevCursor());
+    }
+
+    @Test
+    public void fetchTaskPageBadLimit() throws Exception {
+        params.put("limit", "0");
+        assertThrows(QueryParameterException.class, () -> {
+            TaskFetcher.fetchTaskPage(params);
+        });
+        params.put("limit", "hello");
+        assertThrows(QueryParameterException.class, () -> {
+            TaskFetcher.fetchTaskPage(params);
+        });
+    }
+
+    @Test
+    public void fetchTaskPageBadCursor() throws Exception {
+        params.put("cursor", "not-a-cursor");
+        assertThrows(QueryParameterException.class, () -> {
+            TaskFetcher.fetchTaskPage(params);
+        });
+    }
+
+    @Test
+    public void fetchFieldPage() throws Exception {
+        createTasks(3, 11L, TaskStatus.OPEN, TaskSeverity.CRITICAL);
+        params.put("deviceId", "11");
+        params.put("fields", "status,id");
+        TaskPage<TaskFields> page = TaskFetcher.fetchFieldPage(params);
+        assertEquals(TaskFetcher.fetchTasks(Map.of("deviceId", "11")).size(), page.getTasks().size());
+        for (TaskFields row : page.getTasks()) {
+            // Only the requested fields, in the order of the task's properties
+            assertEquals(List.of("id", "status"), new ArrayList<>(row.keySet()));
+            assertEquals(TaskStatus.OPEN, row.get("status"));
+        }
+    }
+
+    @Test
+    public void fetchFieldPageFollowCursor() throws Exception {
+        createTasks(3, 12L, TaskStatus.CLOSED, TaskSeverity.IMPORTANT);
+        params.put("deviceId", "12");
+        params.put("fields", "deviceId");
+        params.put("limit", "2");
+        TaskPage<TaskFields> page = TaskFetcher.fetchFieldPage(params);
+        assertEquals(2, page.getTasks().size());
+        assertNotNull(page.getNextCursor());
+        // The sort key was read for the cursor, but isn't returned
+        assertEquals(List.of("deviceId"), new ArrayList<>(page.getTasks().get(0).keySet()));
+        params.put("cursor", page.getNextCursor());
+        page = TaskFetcher.fetchFieldPage(params);
+        assertFalse(page.getTasks().isEmpty());
+        assertNotNull(page.getPrevCursor());
+    }
+
+    @Test
+    public void fetchFieldPageBadFields() throws Exception {
+        for (String fields : List.of("", "id,", "name", "!id")) {
+            params.put("fields", fields);
+            assertThrows(QueryParameterException.class, () -> {
+                TaskFetcher.fetchFieldPage(params);
+            });
+        }
+        // Not accepted by DELETE or the export
+        params.put("fields", "id");
+        assertThrows(QueryParameterException.class, () -> {
+            TaskFetcher.fetchTasks(params);
+        });
+    }
+
+    @Test
+    public void countTasksGrouped() throws Exception {
+        createTasks(2, 15L, TaskStatus.OPEN, TaskSeverity.CRITICAL);
+        createTasks(3, 15L, TaskStatus.CLOSED, TaskSeverity.CRITICAL);
+        params.put("deviceId", "15");
+        params.put("groupBy", "status,deviceId");
+        List<Map<String, Object>> groups = TaskFetcher.countTasks(params);
+        long total = 0;
+        for (Map<String, Object> group : groups) {
+            // Grouped columns in a fixed order, then the count
+            assertEquals(List.of("deviceId", "status", "count"), new ArrayList<>(group.keySet()));
+            assertEquals(15L, group.get("deviceId"));
+            TaskStatus status = (TaskStatus) group.get("status");
+            assertEquals(findCount(status), group.get("count"));
+            total += (Long) group.get("count");
+        }
+        // Without groupBy, a single total
+        params.remove("groupBy");
+        assertEquals(List.of(Map.of("count", total)), TaskFetcher.countTasks(params));
+    }
+
+    private long findCount(TaskStatus status) throws Exception {
+        return TaskFetcher.fetchTasks(Map.of("deviceId", "15", "status", status.name())).size();
+    }
+
+    @Test
+    public void countTasksBadGroupBy() throws Exception {
+        for (String groupBy : List.of("", "description", "status,")) {
+            params.put("groupBy", groupBy);
+            assertThrows(QueryParameterException.class, () -> {
+                TaskFetcher.countTasks(params);
+            });
+        }
+        // Only for counting
+        params.put("groupBy", "status");
+        assertThrows(QueryParameterException.class, () -> {
+            TaskFetcher.fetchTasks(params);
+        });
+    }
+
+    @Test
+    public void fetchTasksRejectsPaging() throws Exception {
+        // fetchTasks is also used for DELETE, where pages make no sense
+        params.put("limit", "5");
+        assertThrows(QueryParameterException.class, () -> {
+            TaskFetcher.fetchTasks(params);
+        });
+    }
+
+    @Test
+    public void deleteTasksReturnsCount() throws Exception {
+        createTasks(4, 10L, TaskStatus.CLOSED, TaskSeverity.UNIMPORTANT);
+        params.put("deviceId", "10");
+        params.put("status", "CLOSED");
+        int matching = TaskFetcher.fetchTasks(params).size();
+        assertEquals(matching, TaskFetcher.deleteTasks(params));
+        assertTrue(TaskFetcher.fetchTasks(params).isEmpty());
+    }
+
+    @Test
+    public void deleteTasksBadValue() throws Exception {
+        params.put("severity", "hello");
+        assertThrows(QueryParameterException.class, () -> {
+            TaskFetcher.deleteTasks(params);
+        });
+    }
+
+    @Test
+    public void fetchTasksDeviceIdList() throws Exception {
+        createTasks(2, 21L, TaskStatus.OPEN, TaskSeverity.IMPORTANT);
+        createTasks(2, 23L, TaskStatus.OPEN, TaskSeverity.IMPORTANT);
+        params.put("deviceId", "21,23");
+        List<MaintenanceTask> tasks = TaskFetcher.fetchTasks(params);
+        assertTrue(tasks.size() >= 4);
+        for (MaintenanceTask task : tasks) {
+            assertTrue(task.getDeviceId() == 21L || task.getDeviceId() == 23L);
+        }
+    }
+
+    @Test
+    public void fetchTasksDeviceIdRange() throws Exception {
+        createTasks(2, 31L, TaskStatus.CLOSED, TaskSeverity.CRITICAL);
+        createTasks(2, 35L, TaskStatus.CLOSED, TaskSeverity.CRITICAL);
+        params.put("deviceId", "31..34");
+        List<MaintenanceTask> tasks = TaskFetcher.fetchTasks(params);
+        assertFalse(tasks.isEmpty());
+        for (MaintenanceTask task : tasks) {
+            assertTrue(task.getDeviceId() >= 31L && task.getDeviceId() <= 34L);
+        }
+        // Open ended range
+        params.put("deviceId", "35..");
+        for (MaintenanceTask task : TaskFetcher.fetchTasks(params)) {
+            assertTrue(task.getDeviceId() >= 35L);
+        }
+    }
+
+    @Test
+    public void fetchTasksNegatedFilters() throws Exception {
+        createTasks(2, 3L, TaskStatus.OPEN, TaskSeverity.UNIMPORTANT);
+        params.put("status", "!CLOSED");
+        params.put("deviceId", "!1,2");
+        List<MaintenanceTask> tasks = TaskFetcher.fetchTasks(params);
+        assertFalse(tasks.isEmpty());
+        for (MaintenanceTask task : tasks) {
+            assertEquals(TaskStatus.OPEN, task.getStatus());
+            assertNotEquals(1L, task.getDeviceId());
+            assertNotEquals(2L, task.getDeviceId());
+        }
+    }
+
+    @Test
+    public void fetchTasksSeverityList() throws Exception {
+        createTasks(2, 4L, TaskStatus.OPEN, TaskSeverity.UNIMPORTANT);
+        params.put("severity", "CRITICAL,IMPORTANT");
+        for (MaintenanceTask task : TaskFetcher.fetchTasks(params)) {
+            assertNotEquals(TaskSeverity.UNIMPORTANT, task.getSeverity());
+        }
+        // Negating every status matches nothing, listing every status matches everything
+        params.clear();
+        params.put("status", "!OPEN,CLOSED");
+        assertTrue(TaskFetcher.fetchTasks(params).isEmpty());
+        params.put("status", "OPEN,CLOSED");
+        assertEquals(taskRepository.count(), TaskFetcher.fetchTasks(params).size());
+    }
+
+    @Test
+    public void fetchTasksMalformedFilters() throws Exception {
+        for (String deviceId : Arrays.asList("1,,2", "!", "..", "5..1", "1..x", "1,")) {
+            params.put("deviceId", deviceId);
+            assertThrows(QueryParameterException.class, () -> {
+                TaskFetcher.fetchTasks(params);
+            });
+        }
+        params.clear();
+        params.put("status", "OPEN..CLOSED");
+        assertThrows(QueryParameterException.class, () -> {
+            TaskFetcher.fetchTasks(params);
+        });
+    }
+
+    @Test
+    public void fetchTasksRegisteredWindow() throws Exception {
+        MaintenanceTask old = new MaintenanceTask(40L, TaskSeverity.IMPORTANT, TaskStatus.OPEN, "Old task", LocalDateTime.of(2001, 1, 1, 12, 0));
+        MaintenanceTask recent = new MaintenanceTask(40L, TaskSeverity.IMPORTANT, TaskStatus.OPEN, "Recent task", LocalDateTime.now().minusHours(1));
+        taskRepository.saveAll(Arrays.asList(old, recent));
+
+        params.put("deviceId", "40");
+        params.put("registeredFrom", "PT24H");
+        List<MaintenanceTask> tasks = TaskFetcher.fetchTasks(params);
+        assertTrue(tasks.stream().anyMatch(task -> task.getId().equals(recent.getId())));
+        assertFalse(tasks.stream().anyMatch(task -> task.getId().equals(old.getId())));
+
+        // registeredTo is exclusive
+        params.remove("registeredFrom");
+        params.put("registeredTo", "2001-01-01T12:00:00");
+        assertFalse(TaskFetcher.fetchTasks(params).stream().anyMatch(task -> task.getId().equals(old.getId())));
+        params.put("registeredFrom", "2001-01-01");
+        params.put("registeredTo", "2001-01-02");
+        assertTrue(TaskFetcher.fetchTasks(params).stream().anyMatch(task -> task.getId().equals(old.getId())));
+    }
+
+    @Test
+    public void fetchTasksBadRegistered() throws Exception {
+        for (String registered : Arrays.asList("yesterday", "2022-13-01", "", "P1X")) {
+            params.put("registeredFrom", registered);
+            assertThrows(QueryParameterException.class, () -> {
+                TaskFetcher.fetchTasks(params);
+            });
+        }
+        // Empty window
+        params.put("registeredFrom", "2022-01-02");
+        params.put("registeredTo", "2022-01-01");
+        assertThrows(QueryParameterException.class, () -> {
+            TaskFetcher.fetchTasks(params);
+        });
+    }
 }
@@ -0,0 +1,193 @@
+package com.etteplan.servicemanual.maintenancetask;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/* Benchmark for the MaintenanceTask indexes.
+ * Fills an in-memory database with a large number of tasks, then runs every filter combination
+ * with single values (7 of them), and two time windows, twice: with the indexes, and after dropping them.
+ * Each combination runs unpaged and as a first page, through TaskFetcher.fetchTaskPage.
+ * The SQL Hibernate generates for it (with the id tiebreak of the sort order, and the padded IN lists)
+ * is captured with a statement inspector, and the plan H2 chooses for exactly that statement is printed,
+ * with the median time. Fails if a combination doesn't use one of our indexes.
+ *
+ * Not a unit test (the name doesn't end in Test), so "mvn test" skips it. Run all benchmarks with "mvn -Pbenchmarks test",
+ * or only this one with
+ *   mvn -Pbenchmarks test -Dbenchmark.include=TaskIndexBenchmark -Dbenchmark.rows=1000000 -Dbenchmark.repetitions=3
+ * Run it alone: it has its own application context, which re-points TaskFetcher's static repository. */
+
+@SpringBootTest(properties = {
+    "spring.datasource.url=jdbc:h2:mem:taskindexbenchmark;DB_CLOSE_DELAY=-1",
+    "spring.jpa.hibernate.ddl-auto=create-drop",
+    "spring.jpa.properties.hibernate.session_factory.statement_inspector=com.etteplan.servicemanual.maintenancetask.TaskIndexBenchmark$SqlCapture"
+})
+public class TaskIndexBenchmark {
+
+    private static final int ROWS = Integer.getInteger("benchmark.rows", 1000000);
+    private static final int REPETITIONS = Integer.getInteger("benchmark.repetitions", 3);
+    private static final int DEVICES = 1000;
+    private static final int INSERT_BATCH = 10000;
+
+    private static final int PAGE = 50;
+
+    // Every index of MaintenanceTask
+    private static final List<String> INDEXES = Arrays.asList("idx_task_device", "idx_task_device_status", "idx_task_status",
+        "idx_task_registered", "idx_task_listing", "idx_task_change");
+
+    // Keeps the last task query Hibernate prepared, as it was sent to the database
+    public static class SqlCapture implements StatementInspector {
+        static volatile String lastTaskQuery;
+
+        @Override
+        public String inspect(String sql) {
+            if (sql.startsWith("select") && sql.contains("from maintenance_task")) {
+                lastTaskQuery = sql;
+            }
+            return sql;
+        }
+    }
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final Random random = new Random(42);
+
+    private static class Combination {
+        final String name;
+        final Map<String, String> params = new HashMap<>();
+
+        Combination(String name, String... params) {
+            this.name = name;
+            for (int i = 0; i < params.length; i += 2) {
+                this.params.put(params[i], params[i + 1]);
+            }
+        }
+
+        Combination firstPage() {
+            Combination page = new Combination(name + " page");
+            page.params.putAll(params);
+            page.params.put("limit", String.valueOf(PAGE));
+            return page;
+        }
+    }
+
+    private List<Combination> combinations() {
+        // Every combination of single value filters, and the last 30 days alone and for a device
+        String lastMonth = LocalDate.now().minusDays(30).toString();
+        List<Combination> filters = new ArrayList<>();
+        filters.add(new Combination("deviceId", "deviceId", "17"));
+        filters.add(new Combination("status", "status", "OPEN"));
+        filters.add(new Combination("deviceId+status", "deviceId", "17", "status", "OPEN"));
+        filters.add(new Combination("severity", "severity", "CRITICAL"));
+        filters.add(new Combination("deviceId+severity", "deviceId", "17", "severity", "CRITICAL"));
+        filters.add(new Combination("status+severity", "status", "OPEN", "severity", "CRITICAL"));
+        filters.add(new Combination("deviceId+status+severity", "deviceId", "17", "status", "OPEN", "severity", "CRITICAL"));
+        filters.add(new Combination("registeredFrom", "registeredFrom", lastMonth));
+        filters.add(new Combination("deviceId+registeredFrom", "deviceId", "17", "registeredFrom", lastMonth));
+        List<Combination> combinations = new ArrayList<>();
+        for (Combination combination : filters) {
+            combinations.add(combination);
+            combinations.add(combination.firstPage());
+        }
+        return combinations;
+    }
+
+    private void fillTable() {
+        jdbcTemplate.update("delete from maintenance_task");
+        TaskSeverity[] severities = TaskSeverity.values();
+        LocalDateTime start = LocalDateTime.now().minusYears(2);
+        List<Object[]> batch = new ArrayList<>();
+        for (long id = 1; id <= ROWS; id++) {
+            batch.add(new Object[] {
+                id,
+                (long) random.nextInt(DEVICES) + 1,
+                random.nextInt(2),
+                severities[random.nextInt(severities.length)].getRank(),
+                "Benchmark task",
+                Timestamp.valueOf(start.plusSeconds(random.nextInt(2 * 365 * 24 * 3600)))
+            });
+            if (batch.size() == INSERT_BATCH) {
+                insert(batch);
+            }
+        }
+        insert(batch);
+        jdbcTemplate.execute("analyze");
+    }
+
+    private void insert(List<Object[]> batch) {
+        jdbcTemplate.batchUpdate("insert into maintenance_task (id, device_id, status, severity, description, registered) values (?, ?, ?, ?, ?, ?)", batch);
+        batch.clear();
+    }
+
+    private String plan(String sql) {
+        // The statement as Hibernate prepared it, parameters unbound: the plan H2 prepares for it
+        return jdbcTemplate.query(connection -> connection.prepareStatement("explain " + sql),
+            (ResultSetExtractor<String>) result -> result.next() ? result.getString(1) : null);
+    }
+
+    private long medianMillis(Combination combination) throws Exception {
+        long[] times = new long[REPETITIONS];
+        for (int i = 0; i < REPETITIONS; i++) {
+            long begin = System.nanoTime();
+            TaskFetcher.fetchTaskPage(combination.params);
+            times[i] = (System.nanoTime() - begin) / 1000000;
+        }
+        Arrays.sort(times);
+        return times[REPETITIONS / 2];
+    }
+
+    private Map<String, String[]> measure() throws Exception {
+        // name -> { plan, median milliseconds }
+        Map<String, String[]> results = new LinkedHashMap<>();
+        for (Combination combination : combinations()) {
+            SqlCapture.lastTaskQuery = null;
+            String millis = String.valueOf(medianMillis(combination));
+            String sql = SqlCapture.lastTaskQuery;
+            assertNotNull(sql, combination.name + " ran no task query");
+            results.put(combination.name, new String[] { plan(sql), millis });
+        }
+        return results;
+    }
+
+    @Test
+    public void filterCombinationsUseIndexes() throws Exception {
+        fillTable();
+
+        Map<String, String[]> after = measure();
+        for (String index : INDEXES) {
+            jdbcTemplate.execute("drop index if exists " + index);
+        }
+        Map<String, String[]> before = measure();
+
+        System.out.format("%n%d tasks, median of %d runs of TaskFetcher.fetchTaskPage%n", ROWS, REPETITIONS);
+        System.out.format("%-32s %12s %12s%n", "filters", "before (ms)", "after (ms)");
+        for (String name : after.keySet()) {
+            System.out.format("%-32s %12s %12s%n", name, before.get(name)[1], after.get(name)[1]);
+        }
+        for (String name : after.keySet()) {
+            System.out.format("%n%s%n  before: %s%n  after:  %s%n", name, before.get(name)[0], after.get(name)[0]);
+        }
+
+        for (String name : after.keySet()) {
+            String plan = after.get(name)[0].toLowerCase();
+            assertFalse(plan.contains("tablescan"), name + " scans the whole table: " + plan);
+            assertTrue(plan.contains("idx_task_"), name + " doesn't use a task index: " + plan);
+        }
+    }
+}
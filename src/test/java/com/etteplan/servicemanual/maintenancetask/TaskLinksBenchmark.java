@@ -0,0 +1,90 @@
+package com.etteplan.servicemanual.maintenancetask;
+
+import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.*;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.hateoas.CollectionModel;
+import org.springframework.hateoas.EntityModel;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/* JMH benchmark of building the models of a task listing (10,000 tasks by default):
+ * with TaskLinks, as MaintenanceTaskModelAssembler does now, and with a linkTo(methodOn(...)) for every link,
+ * as it did before. Each invocation is one request, so TaskLinks resolves its links once per invocation.
+ *
+ * Run all benchmarks with "mvn -Pbenchmarks test", or only this one with
+ *   mvn -Pbenchmarks test -Dbenchmark.include=TaskLinksBenchmark */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TaskLinksBenchmark {
+
+    @Param("10000")
+    public int tasks;
+
+    private final TaskLinks links = new TaskLinks();
+    private final MaintenanceTaskModelAssembler assembler = new MaintenanceTaskModelAssembler(links);
+    private final Map<String, String> params = new HashMap<>();
+    private List<MaintenanceTask> taskList;
+
+    @Setup(Level.Trial)
+    public void createTasks() {
+        taskList = new ArrayList<>(tasks);
+        for (long id = 1; id <= tasks; id++) {
+            MaintenanceTask task = new MaintenanceTask(id % 100 + 1, TaskSeverity.IMPORTANT, TaskStatus.OPEN, "Benchmark task");
+            ReflectionTestUtils.setField(task, "id", id);
+            taskList.add(task);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void startRequest() {
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest("GET", "/api/tasks")));
+    }
+
+    @TearDown(Level.Invocation)
+    public void endRequest() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Benchmark
+    public CollectionModel<EntityModel<MaintenanceTask>> taskLinks() {
+        List<EntityModel<MaintenanceTask>> models = taskList.stream().map(assembler::toModel).collect(Collectors.toList());
+        return CollectionModel.of(models, links.tasks().withSelfRel());
+    }
+
+    @Benchmark
+    public CollectionModel<EntityModel<MaintenanceTask>> linkToMethodOn() {
+        List<EntityModel<MaintenanceTask>> models = taskList.stream()
+            .map(task -> EntityModel.of(task,
+                linkTo(methodOn(MaintenanceTaskController.class).getTaskById(task.getId(), null)).withSelfRel(),
+                linkTo(methodOn(MaintenanceTaskController.class).all(params, null)).withRel("tasks")))
+            .collect(Collectors.toList());
+        return CollectionModel.of(models, linkTo(methodOn(MaintenanceTaskController.class).all(params, null)).withSelfRel());
+    }
+}
@@ -0,0 +1,57 @@
+package com.etteplan.servicemanual.maintenancetask;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.hateoas.EntityModel;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.concurrent.TimeUnit;
+
+/* JMH benchmark of MaintenanceTaskModelAssembler.toModel for a single task.
+ * The whole trial is one request, so TaskLinks resolves the tasks link once and every invocation reuses it,
+ * as the tasks of one listing do. TaskLinksBenchmark measures a whole listing, link resolution included.
+ *
+ * Run all benchmarks with "mvn -Pbenchmarks test", or only this one with
+ *   mvn -Pbenchmarks test -Dbenchmark.include=TaskModelBenchmark */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TaskModelBenchmark {
+
+    private final MaintenanceTaskModelAssembler assembler = new MaintenanceTaskModelAssembler(new TaskLinks());
+    private MaintenanceTask task;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest("GET", "/api/tasks")));
+        task = new MaintenanceTask(17L, TaskSeverity.IMPORTANT, TaskStatus.OPEN, "Benchmark task");
+        ReflectionTestUtils.setField(task, "id", 4242L);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Benchmark
+    public EntityModel<MaintenanceTask> toModel() {
+        return assembler.toModel(task);
+    }
+}
@@ -0,0 +1,96 @@
+package com.etteplan.servicemanual.maintenancetask;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.hateoas.CollectionModel;
+import org.springframework.hateoas.EntityModel;
+import org.springframework.hateoas.mediatype.MessageResolver;
+import org.springframework.hateoas.mediatype.hal.CurieProvider;
+import org.springframework.hateoas.mediatype.hal.Jackson2HalModule;
+import org.springframework.hateoas.server.core.AnnotationLinkRelationProvider;
+import org.springframework.hateoas.server.core.DefaultLinkRelationProvider;
+import org.springframework.hateoas.server.core.DelegatingLinkRelationProvider;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/* JMH benchmark of writing a task listing as HAL JSON: Jackson serialization of a
+ * CollectionModel<EntityModel<MaintenanceTask>> of 100, 10,000 and 100,000 tasks, links included.
+ * The models are built once, in the setup, so only the serialization is measured.
+ * The ObjectMapper is configured like the application's HAL one (Spring's defaults, e.g. ISO dates, plus the HAL module).
+ * Tasks are generated from a fixed seed, so every run serializes the same data.
+ *
+ * Run all benchmarks with "mvn -Pbenchmarks test", or only this one with
+ *   mvn -Pbenchmarks test -Dbenchmark.include=TaskSerializationBenchmark */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TaskSerializationBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    public int tasks;
+
+    private ObjectMapper mapper;
+    private CollectionModel<EntityModel<MaintenanceTask>> model;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mapper = Jackson2ObjectMapperBuilder.json()
+            .modulesToInstall(new Jackson2HalModule())
+            .handlerInstantiator(new Jackson2HalModule.HalHandlerInstantiator(
+                new DelegatingLinkRelationProvider(new AnnotationLinkRelationProvider(), new DefaultLinkRelationProvider()),
+                CurieProvider.NONE, MessageResolver.DEFAULTS_ONLY))
+            .build();
+
+        TaskLinks links = new TaskLinks();
+        MaintenanceTaskModelAssembler assembler = new MaintenanceTaskModelAssembler(links);
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest("GET", "/api/tasks")));
+        try {
+            Random random = new Random(42);
+            LocalDateTime start = LocalDateTime.of(2022, 1, 1, 0, 0);
+            List<EntityModel<MaintenanceTask>> models = new ArrayList<>(tasks);
+            for (long id = 1; id <= tasks; id++) {
+                MaintenanceTask task = new MaintenanceTask((long) random.nextInt(1000) + 1,
+                    TaskSeverity.values()[random.nextInt(TaskSeverity.values().length)],
+                    TaskStatus.values()[random.nextInt(TaskStatus.values().length)],
+                    "Benchmark task " + id, start.plusMinutes(random.nextInt(500000)));
+                ReflectionTestUtils.setField(task, "id", id);
+                models.add(assembler.toModel(task));
+            }
+            model = CollectionModel.of(models, links.tasks().withSelfRel());
+        }
+        finally {
+            RequestContextHolder.resetRequestAttributes();
+        }
+    }
+
+    @Benchmark
+    public byte[] writeHalJson() throws JsonProcessingException {
+        return mapper.writeValueAsBytes(model);
+    }
+}